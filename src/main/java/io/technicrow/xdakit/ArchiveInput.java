@@ -0,0 +1,77 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Positional access to the raw bytes of an XDA file
+ */
+abstract class ArchiveInput implements Closeable {
+
+    abstract long length() throws IOException;
+
+    /**
+     * Read bytes into {@code dst} starting at {@code position}, without touching the cursor.
+     * Safe to call from several threads at once.
+     *
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    abstract int read(ByteBuffer dst, long position) throws IOException;
+
+    /**
+     * Open a stream over {@code length} bytes starting at {@code position}.
+     * The cursor of this input is left untouched, and several streams can be read concurrently.
+     */
+    abstract InputStream openRegion(long position, long length) throws IOException;
+
+    /**
+     * A read-only view of {@code length} bytes starting at {@code position}, sharing this input's memory
+     *
+     * @return the view, or null if the bytes can only be read by copying them
+     */
+    @Nullable
+    ByteBuffer slice(long position, int length) throws IOException {
+        return null;
+    }
+
+    /**
+     * Write {@code length} bytes starting at {@code position} to {@code target}, without touching the cursor
+     */
+    abstract void transferTo(long position, long length, WritableByteChannel target) throws IOException;
+
+    /**
+     * Positionally read until {@code dst} is full or the end of the file is reached
+     *
+     * @return the number of bytes read
+     */
+    int fill(ByteBuffer dst, long position) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = read(dst, position + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Loop over {@link FileChannel#transferTo}, which may move fewer bytes than asked for
+     */
+    static void transfer(FileChannel channel, long position, long length, WritableByteChannel target) throws IOException {
+        if (position < 0 || length < 0 || position + length > channel.size()) {
+            throw new EOFException("Region out of range: " + position + "+" + length);
+        }
+        long done = 0;
+        while (done < length) {
+            done += channel.transferTo(position + done, length - done, target);
+        }
+    }
+}
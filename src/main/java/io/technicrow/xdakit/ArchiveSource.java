@@ -0,0 +1,67 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Raw bytes of an XDA archive: a size and positional reads.
+ * <p>
+ * Implementations must allow {@link #read(ByteBuffer, long)} from several threads at once.
+ * Closing the document opened from a source closes the source.
+ *
+ * @see XDADocument#open(ArchiveSource, io.technicrow.xdakit.constant.XDAOpenOption...)
+ */
+public interface ArchiveSource extends Closeable {
+
+    /**
+     * @return the number of bytes in the archive
+     */
+    long size() throws IOException;
+
+    /**
+     * Read bytes into {@code dst} starting at {@code position}
+     *
+     * @return the number of bytes read, or -1 at the end of the archive
+     */
+    int read(@Nonnull ByteBuffer dst, long position) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * A source over the remaining bytes of {@code buffer}, which is neither copied nor modified.
+     * Stored files are then handed out as views of the buffer.
+     */
+    static ArchiveSource of(@Nonnull ByteBuffer buffer) {
+        return new ArchiveSources.BufferSource(buffer);
+    }
+
+    /**
+     * A source over {@code data}, which is not copied
+     */
+    static ArchiveSource of(@Nonnull byte[] data) {
+        return new ArchiveSources.BufferSource(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * A source over {@code channel}. Positional reads on a channel other than a {@link FileChannel} move its
+     * position and are serialized.
+     */
+    static ArchiveSource of(@Nonnull SeekableByteChannel channel) {
+        return new ArchiveSources.ChannelSource(channel);
+    }
+
+    /**
+     * Open {@code file} for reading only
+     */
+    static ArchiveSource open(@Nonnull Path file) throws IOException {
+        return new ArchiveSources.ChannelSource(FileChannel.open(file, StandardOpenOption.READ));
+    }
+}
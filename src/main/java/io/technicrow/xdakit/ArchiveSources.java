@@ -0,0 +1,138 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The built-in {@link ArchiveSource} implementations
+ */
+final class ArchiveSources {
+
+    private ArchiveSources() {
+    }
+
+    /**
+     * Open the fastest {@link ArchiveInput} for {@code source}
+     */
+    static ArchiveInput input(ArchiveSource source) throws IOException {
+        if (source instanceof BufferSource) {
+            return MappedArchiveInput.wrap(((BufferSource) source).buffer);
+        }
+        return new SourceArchiveInput(source);
+    }
+
+    static final class BufferSource implements ArchiveSource {
+
+        private final ByteBuffer buffer;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer.slice();
+        }
+
+        @Override
+        public long size() {
+            return buffer.limit();
+        }
+
+        @Override
+        public int read(@Nonnull ByteBuffer dst, long position) {
+            if (position >= buffer.limit()) {
+                return -1;
+            }
+            ByteBuffer window = buffer.duplicate();
+            window.position((int) position);
+            if (window.remaining() > dst.remaining()) {
+                window.limit(window.position() + dst.remaining());
+            }
+            int n = window.remaining();
+            dst.put(window);
+            return n;
+        }
+    }
+
+    static final class ChannelSource implements ArchiveSource {
+
+        private final SeekableByteChannel channel;
+
+        ChannelSource(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return the channel if it can be read positionally and transferred from, otherwise null
+         */
+        FileChannel fileChannel() {
+            return (channel instanceof FileChannel) ? (FileChannel) channel : null;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public int read(@Nonnull ByteBuffer dst, long position) throws IOException {
+            if (channel instanceof FileChannel) {
+                return ((FileChannel) channel).read(dst, position);
+            }
+            synchronized (channel) {
+                channel.position(position);
+                return channel.read(dst);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A window of another archive's input, such as a stored member archive. Closing it leaves the input open.
+     */
+    static final class RangeSource implements ArchiveSource {
+
+        private final ArchiveInput input;
+        private final long offset;
+        private final long length;
+
+        RangeSource(ArchiveInput input, long offset, long length) {
+            this.input = input;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        void transferTo(long position, long length, WritableByteChannel target) throws IOException {
+            if (position < 0 || length < 0 || position + length > this.length) {
+                throw new EOFException("Region out of range: " + position + "+" + length);
+            }
+            input.transferTo(offset + position, length, target);
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        public int read(@Nonnull ByteBuffer dst, long position) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            int limit = dst.limit();
+            if (dst.remaining() > length - position) {
+                dst.limit(dst.position() + (int) (length - position));
+            }
+            try {
+                return input.read(dst, offset + position);
+            } finally {
+                dst.limit(limit);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.FileStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor of the asynchronous {@link XDA} methods.
+ * <p>
+ * On Java 21 and later every task gets its own virtual thread, found by reflection so that the library still builds
+ * and runs on Java 8. Earlier runtimes get a cached pool of daemon threads, since the tasks block on file reads and
+ * must not tie up the common fork-join pool.
+ */
+final class AsyncExecutors {
+
+    private AsyncExecutors() {
+    }
+
+    static ExecutorService defaultExecutor() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     * Combine the files of {@link XDA#getFilesAsync(java.util.Collection, java.util.concurrent.Executor)},
+     * closing the opened ones if any fails
+     */
+    static CompletableFuture<Map<String, FileStream>> collect(List<String> paths, List<CompletableFuture<FileStream>> files) {
+        return CompletableFuture.allOf(files.toArray(new CompletableFuture<?>[0])).handle((ignored, failure) -> {
+            if (failure != null) {
+                for (CompletableFuture<FileStream> file : files) {
+                    if (!file.isCompletedExceptionally() && file.join() != null) {
+                        closeQuietly(file.join().getInputStream());
+                    }
+                }
+                throw (failure instanceof CompletionException) ? (CompletionException) failure
+                        : new CompletionException(failure);
+            }
+            Map<String, FileStream> result = new LinkedHashMap<>();
+            for (int i = 0; i < paths.size(); i++) {
+                result.put(paths.get(i), files.get(i).join());
+            }
+            return result;
+        });
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // The file is dropped anyway
+        }
+    }
+
+    /**
+     * @return true if the default executor runs tasks on virtual threads
+     */
+    static boolean usesVirtualThreads() {
+        return Holder.VIRTUAL;
+    }
+
+    private static final class Holder {
+
+        private static final ExecutorService EXECUTOR;
+        private static final boolean VIRTUAL;
+
+        static {
+            ExecutorService executor = null;
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                executor = (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Not available before Java 21
+            }
+            VIRTUAL = executor != null;
+            EXECUTOR = VIRTUAL ? executor : Executors.newCachedThreadPool(new DaemonThreadFactory());
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "xda-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
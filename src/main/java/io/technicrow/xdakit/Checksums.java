@@ -0,0 +1,44 @@
+package io.technicrow.xdakit;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * The checksum convention used when writing and validating archives.
+ * <p>
+ * An entry's 16-byte checkSum is the MD5 of its name table followed by its item list, both as stored (so after
+ * table compression). A file record's 1-byte checkSum is the low byte of the CRC-32 of the body as stored.
+ */
+final class Checksums {
+
+    private Checksums() {
+        throw new AssertionError("No instance of Checksums for you!");
+    }
+
+    static MessageDigest newEntryDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] entryCheckSum(byte[] nameTable, byte[] itemList) {
+        MessageDigest digest = newEntryDigest();
+        digest.update(nameTable);
+        digest.update(itemList);
+        return digest.digest();
+    }
+
+    static byte fileCheckSum(CRC32 storedBody) {
+        return (byte) storedBody.getValue();
+    }
+
+    static byte fileCheckSum(byte[] storedBody, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(storedBody, offset, length);
+        return fileCheckSum(crc);
+    }
+}
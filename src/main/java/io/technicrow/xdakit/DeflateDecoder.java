@@ -0,0 +1,394 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Decoder of raw deflate data (RFC 1951) that can start at any block boundary.
+ * <p>
+ * {@link java.util.zip.Inflater} can neither report block boundaries nor resume at a bit offset, both of which a
+ * checkpoint index needs. This decoder reports its bit position, stops every read at the end of a block, and can
+ * be started at a block boundary with the preceding window as dictionary. See {@link InflateIndex}.
+ */
+final class DeflateDecoder {
+
+    static final int WINDOW_SIZE = 32 * 1024;
+
+    private static final int MODE_HEADER = 0;
+    private static final int MODE_STORED = 1;
+    private static final int MODE_HUFFMAN = 2;
+    private static final int MODE_DONE = 3;
+
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59,
+            67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4,
+            5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+            513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10,
+            10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+    private static final Table FIXED_LITERALS;
+    private static final Table FIXED_DISTANCES;
+
+    static {
+        try {
+            FIXED_LITERALS = fixedTable(288);
+            FIXED_DISTANCES = fixedTable(30);
+        } catch (ZipException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Table fixedTable(int count) throws ZipException {
+        byte[] lengths = new byte[count];
+        if (count == 30) {
+            Arrays.fill(lengths, (byte) 5);
+            return Table.build(lengths, 0, count);
+        }
+        Arrays.fill(lengths, 0, 144, (byte) 8);
+        Arrays.fill(lengths, 144, 256, (byte) 9);
+        Arrays.fill(lengths, 256, 280, (byte) 7);
+        Arrays.fill(lengths, 280, 288, (byte) 8);
+        return Table.build(lengths, 0, count);
+    }
+
+    private final InputStream in;
+    private final byte[] input = new byte[8192];
+    private int inputPosition;
+    private int inputLimit;
+    private boolean inputEnded;
+    private long bytesLoaded;
+    private final long startBit;
+    private long bitBuffer;
+    private int bitCount;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long outputPosition;
+    private long history;
+
+    private int mode = MODE_HEADER;
+    private boolean lastBlock;
+    private int storedRemaining;
+    private Table literals;
+    private Table distances;
+    private int copyLength;
+    private int copyDistance;
+
+    /**
+     * Decode from the start of a deflate stream
+     */
+    DeflateDecoder(InputStream in) {
+        this.in = in;
+        this.startBit = 0;
+    }
+
+    /**
+     * Resume at a block boundary
+     *
+     * @param in             the compressed data from byte {@code bitPosition / 8} on
+     * @param bitPosition    the boundary, in bits from the start of the deflate stream
+     * @param outputPosition the number of bytes decoded before the boundary
+     * @param dictionary     up to {@link #WINDOW_SIZE} bytes decoded right before the boundary
+     */
+    DeflateDecoder(InputStream in, long bitPosition, long outputPosition, byte[] dictionary) throws IOException {
+        this.in = in;
+        this.startBit = bitPosition & ~7L;
+        this.outputPosition = outputPosition;
+        int length = Math.min(dictionary.length, WINDOW_SIZE);
+        for (int i = 0; i < length; i++) {
+            window[(int) ((outputPosition - length + i) & (WINDOW_SIZE - 1))] = dictionary[dictionary.length - length + i];
+        }
+        this.history = length;
+        bits((int) (bitPosition & 7));
+    }
+
+    /**
+     * Decode up to {@code len} bytes, stopping at the end of the current block
+     *
+     * @return the number of bytes decoded, which is 0 if the block ended before any, or -1 at the end of the stream
+     */
+    int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            if (copyLength > 0) {
+                int count = Math.min(copyLength, len - n);
+                for (int i = 0; i < count; i++) {
+                    b[off + n++] = put(window[(int) ((outputPosition - copyDistance) & (WINDOW_SIZE - 1))]);
+                }
+                copyLength -= count;
+                continue;
+            }
+            switch (mode) {
+                case MODE_HEADER:
+                    readBlockHeader();
+                    break;
+                case MODE_STORED:
+                    if (storedRemaining == 0) {
+                        if (endBlock()) {
+                            return n;
+                        }
+                        break;
+                    }
+                    b[off + n++] = put((byte) bits(8));
+                    storedRemaining--;
+                    break;
+                case MODE_HUFFMAN:
+                    int symbol = decode(literals);
+                    if (symbol < 256) {
+                        b[off + n++] = put((byte) symbol);
+                    } else if (symbol == 256) {
+                        if (endBlock()) {
+                            return n;
+                        }
+                    } else {
+                        readMatch(symbol - 257);
+                    }
+                    break;
+                default:
+                    return (n == 0) ? -1 : n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return true between two blocks, where decoding can be resumed from a checkpoint
+     */
+    boolean atBlockBoundary() {
+        return mode == MODE_HEADER && copyLength == 0;
+    }
+
+    boolean isFinished() {
+        return mode == MODE_DONE && copyLength == 0;
+    }
+
+    /**
+     * @return the number of bits consumed from the start of the deflate stream
+     */
+    long bitPosition() {
+        return startBit + bytesLoaded * 8 - bitCount;
+    }
+
+    long outputPosition() {
+        return outputPosition;
+    }
+
+    /**
+     * @return the last bytes decoded, at most {@link #WINDOW_SIZE}
+     */
+    byte[] window() {
+        int length = (int) Math.min(history, WINDOW_SIZE);
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = window[(int) ((outputPosition - length + i) & (WINDOW_SIZE - 1))];
+        }
+        return result;
+    }
+
+    private byte put(byte b) {
+        window[(int) (outputPosition & (WINDOW_SIZE - 1))] = b;
+        outputPosition++;
+        history++;
+        return b;
+    }
+
+    /**
+     * @return true if another block follows, so that the read stops at the boundary
+     */
+    private boolean endBlock() {
+        mode = lastBlock ? MODE_DONE : MODE_HEADER;
+        return !lastBlock;
+    }
+
+    private void readBlockHeader() throws IOException {
+        lastBlock = bits(1) == 1;
+        switch (bits(2)) {
+            case 0:
+                // Stored blocks start at a byte boundary
+                bits(bitCount & 7);
+                int length = bits(16);
+                int complement = bits(16);
+                if ((length ^ 0xffff) != complement) {
+                    throw new ZipException("Invalid stored block length");
+                }
+                storedRemaining = length;
+                mode = MODE_STORED;
+                break;
+            case 1:
+                literals = FIXED_LITERALS;
+                distances = FIXED_DISTANCES;
+                mode = MODE_HUFFMAN;
+                break;
+            case 2:
+                readDynamicTables();
+                mode = MODE_HUFFMAN;
+                break;
+            default:
+                throw new ZipException("Invalid block type");
+        }
+    }
+
+    private void readDynamicTables() throws IOException {
+        int literalCount = bits(5) + 257;
+        int distanceCount = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new ZipException("Too many length or distance symbols");
+        }
+        byte[] codeLengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        }
+        Table codeLengthTable = Table.build(codeLengths, 0, 19);
+        byte[] lengths = new byte[literalCount + distanceCount];
+        int i = 0;
+        while (i < lengths.length) {
+            int symbol = decode(codeLengthTable);
+            if (symbol < 16) {
+                lengths[i++] = (byte) symbol;
+                continue;
+            }
+            byte value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new ZipException("Repeated length with no first length");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > lengths.length) {
+                throw new ZipException("Too many code lengths");
+            }
+            Arrays.fill(lengths, i, i + repeat, value);
+            i += repeat;
+        }
+        if (lengths[256] == 0) {
+            throw new ZipException("Missing end-of-block code");
+        }
+        literals = Table.build(lengths, 0, literalCount);
+        distances = Table.build(lengths, literalCount, distanceCount);
+    }
+
+    private void readMatch(int lengthSymbol) throws IOException {
+        if (lengthSymbol >= LENGTH_BASE.length) {
+            throw new ZipException("Invalid length symbol");
+        }
+        int length = LENGTH_BASE[lengthSymbol] + bits(LENGTH_EXTRA[lengthSymbol]);
+        int distanceSymbol = decode(distances);
+        if (distanceSymbol >= DISTANCE_BASE.length) {
+            throw new ZipException("Invalid distance symbol");
+        }
+        int distance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+        if (distance > history || distance > WINDOW_SIZE) {
+            throw new ZipException("Invalid distance too far back");
+        }
+        copyLength = length;
+        copyDistance = distance;
+    }
+
+    private int decode(Table table) throws IOException {
+        while (bitCount < table.bits && load()) {
+            // Fill up to the longest code, or as far as the input goes
+        }
+        int entry = table.entries[(int) (bitBuffer & ((1 << table.bits) - 1))];
+        int length = entry & 0xf;
+        if (length == 0) {
+            throw new ZipException("Invalid Huffman code");
+        }
+        if (length > bitCount) {
+            throw new EOFException("Unexpected end of deflate data");
+        }
+        bitBuffer >>>= length;
+        bitCount -= length;
+        return entry >>> 4;
+    }
+
+    private int bits(int count) throws IOException {
+        while (bitCount < count) {
+            if (!load()) {
+                throw new EOFException("Unexpected end of deflate data");
+            }
+        }
+        int value = (int) (bitBuffer & ((1L << count) - 1));
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private boolean load() throws IOException {
+        if (inputPosition == inputLimit) {
+            if (inputEnded) {
+                return false;
+            }
+            int n = in.read(input);
+            if (n <= 0) {
+                inputEnded = true;
+                return false;
+            }
+            inputPosition = 0;
+            inputLimit = n;
+        }
+        bitBuffer |= (long) (input[inputPosition++] & 0xff) << bitCount;
+        bitCount += 8;
+        bytesLoaded++;
+        return true;
+    }
+
+    /**
+     * Canonical Huffman code as a table indexed by the next {@code bits} input bits, LSB first.
+     * Each entry holds the symbol shifted left by 4 and the code length, 0 meaning no such code.
+     */
+    private static final class Table {
+
+        private final int[] entries;
+        private final int bits;
+
+        private Table(int[] entries, int bits) {
+            this.entries = entries;
+            this.bits = bits;
+        }
+
+        static Table build(byte[] lengths, int from, int count) throws ZipException {
+            int maxLength = 0;
+            int[] lengthCounts = new int[16];
+            for (int i = 0; i < count; i++) {
+                int length = lengths[from + i];
+                lengthCounts[length]++;
+                maxLength = Math.max(maxLength, length);
+            }
+            lengthCounts[0] = 0;
+            int[] nextCode = new int[16];
+            int code = 0;
+            for (int length = 1; length <= 15; length++) {
+                code = (code + lengthCounts[length - 1]) << 1;
+                nextCode[length] = code;
+            }
+            int bits = Math.max(maxLength, 1);
+            int[] entries = new int[1 << bits];
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[from + symbol];
+                if (length == 0) {
+                    continue;
+                }
+                if (nextCode[length] >= (1 << length)) {
+                    throw new ZipException("Oversubscribed Huffman code");
+                }
+                int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                for (int i = reversed; i < entries.length; i += 1 << length) {
+                    entries[i] = (symbol << 4) | length;
+                }
+            }
+            return new Table(entries, bits);
+        }
+    }
+}
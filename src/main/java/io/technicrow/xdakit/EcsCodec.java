@@ -0,0 +1,47 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of file bodies identified by one ECS mark.
+ * <p>
+ * Codecs are looked up in {@link EcsCodecs}; besides the built-in deflate (0x02) and bzip2 (0x10) codecs, others
+ * can be registered there or listed in {@code META-INF/services/io.technicrow.xdakit.EcsCodec}.
+ * Implementations must be thread-safe.
+ */
+public interface EcsCodec {
+
+    /**
+     * @return the ECS mark this codec handles, never 0
+     */
+    byte getMark();
+
+    /**
+     * Wrap a stream of encoded bytes. Closing the returned stream closes {@code encoded}.
+     */
+    @Nonnull
+    InputStream decode(@Nonnull InputStream encoded) throws IOException;
+
+    /**
+     * Wrap {@code target} so that bytes written are encoded into it. Closing the returned stream closes {@code target}.
+     *
+     * @param level a deflate-style level from 0 to 9, or -1 for the default; codecs without levels ignore it
+     */
+    @Nonnull
+    OutputStream encode(@Nonnull OutputStream target, int level) throws IOException;
+
+    /**
+     * Decode a whole body held in memory, from its position to its limit.
+     * The default decodes through {@link #decode(InputStream)}; buffer-based decoders should override it.
+     *
+     * @return a buffer holding the decoded bytes from its position to its limit
+     */
+    @Nonnull
+    default ByteBuffer decode(@Nonnull ByteBuffer encoded) throws IOException {
+        return EcsCodecs.decodeByStream(this, encoded);
+    }
+}
@@ -0,0 +1,245 @@
+package io.technicrow.xdakit;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Registry of {@link EcsCodec}s by ECS mark.
+ * <p>
+ * Deflate (0x02) and bzip2 (0x10) are built in. Codecs found by {@link ServiceLoader} are registered when this class
+ * is loaded, but only for marks still free: a provider claiming a taken mark, or one that fails to load, is skipped,
+ * logged and listed by {@link #getProviderFailures()}. Only an explicit {@link #register(EcsCodec)} replaces a
+ * codec. Mark 0 is a no-op in every chain and cannot be registered.
+ */
+public final class EcsCodecs {
+
+    public static final byte DEFLATE = 0x02;
+    public static final byte BZIP2 = 0x10;
+
+    private static final Logger LOGGER = Logger.getLogger(EcsCodecs.class.getName());
+    private static final AtomicReferenceArray<EcsCodec> CODECS = new AtomicReferenceArray<>(256);
+    private static final List<Throwable> PROVIDER_FAILURES = new CopyOnWriteArrayList<>();
+
+    static {
+        register(new DeflateCodec());
+        register(new BZip2Codec());
+        loadProviders(ServiceLoader.load(EcsCodec.class, EcsCodecs.class.getClassLoader()).iterator());
+    }
+
+    private EcsCodecs() {
+    }
+
+    /**
+     * Register every provider for a free mark, skipping and reporting the rest
+     */
+    static void loadProviders(Iterator<EcsCodec> services) {
+        while (true) {
+            try {
+                if (!services.hasNext()) {
+                    break;
+                }
+                EcsCodec codec = services.next();
+                byte mark = codec.getMark();
+                if (mark == 0) {
+                    throw new IllegalArgumentException("ECS mark 0 is reserved: " + codec.getClass().getName());
+                }
+                if (!CODECS.compareAndSet(mark & 0xff, null, codec)) {
+                    throw new IllegalStateException(String.format("ECS mark %02x is already taken by %s, skipped %s",
+                            mark & 0xff, get(mark).getClass().getName(), codec.getClass().getName()));
+                }
+            } catch (ServiceConfigurationError | RuntimeException e) {
+                // A broken provider must not make the built-in codecs unavailable
+                PROVIDER_FAILURES.add(e);
+                LOGGER.log(Level.WARNING, "Skipped an ECS codec provider", e);
+            }
+        }
+    }
+
+    /**
+     * @return why each skipped {@link ServiceLoader} provider was not registered
+     */
+    @Nonnull
+    public static List<Throwable> getProviderFailures() {
+        return Collections.unmodifiableList(PROVIDER_FAILURES);
+    }
+
+    /**
+     * Register a codec for its mark
+     *
+     * @return the codec it replaces, if any
+     */
+    @Nullable
+    public static EcsCodec register(@Nonnull EcsCodec codec) {
+        byte mark = codec.getMark();
+        if (mark == 0) {
+            throw new IllegalArgumentException("ECS mark 0 is reserved: " + codec.getClass().getName());
+        }
+        return CODECS.getAndSet(mark & 0xff, codec);
+    }
+
+    /**
+     * Put back the codec {@link #register(EcsCodec)} replaced, or free the mark if {@code previous} is null
+     */
+    static void restore(byte mark, @Nullable EcsCodec previous) {
+        CODECS.set(mark & 0xff, previous);
+    }
+
+    /**
+     * @return the codec registered for {@code mark}, or null if there is none
+     */
+    @Nullable
+    public static EcsCodec get(byte mark) {
+        return CODECS.get(mark & 0xff);
+    }
+
+    static EcsCodec require(byte mark) throws XDAException {
+        EcsCodec codec = get(mark);
+        if (codec == null) {
+            throw new XDAException("Invalid encryption mark: " + Integer.toHexString(mark & 0xff));
+        }
+        return codec;
+    }
+
+    /**
+     * @return true if {@code mark} is still handled by the codec built into this library
+     */
+    static boolean isBuiltIn(byte mark) {
+        EcsCodec codec = get(mark);
+        return codec instanceof DeflateCodec || codec instanceof BZip2Codec;
+    }
+
+    /**
+     * @return true if every mark is 0, i.e. the body is stored as is
+     */
+    static boolean isStored(byte[] ecs) {
+        for (byte mark : ecs) {
+            if (mark != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static ByteBuffer decodeByStream(EcsCodec codec, ByteBuffer encoded) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, encoded.remaining() * 2));
+        try (InputStream in = codec.decode(new BufferStream(encoded.duplicate()))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static final class DeflateCodec implements EcsCodec {
+
+        @Override
+        public byte getMark() {
+            return DEFLATE;
+        }
+
+        @Nonnull
+        @Override
+        public InputStream decode(@Nonnull InputStream encoded) {
+            return InflaterPool.inflate(encoded);
+        }
+
+        @Nonnull
+        @Override
+        public OutputStream encode(@Nonnull OutputStream target, int level) {
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(target, deflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+    }
+
+    private static final class BZip2Codec implements EcsCodec {
+
+        @Override
+        public byte getMark() {
+            return BZIP2;
+        }
+
+        @Nonnull
+        @Override
+        public InputStream decode(@Nonnull InputStream encoded) throws IOException {
+            return new BZip2CompressorInputStream(encoded);
+        }
+
+        @Nonnull
+        @Override
+        public OutputStream encode(@Nonnull OutputStream target, int level) throws IOException {
+            return new BZip2CompressorOutputStream(target);
+        }
+    }
+
+    /**
+     * Stream over the remaining bytes of a buffer
+     */
+    private static final class BufferStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Options of {@link XDADocument#extractAll(java.nio.file.Path, ExtractOptions)}
+ */
+public final class ExtractOptions {
+
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final int maxInFlightBytes;
+    private final boolean overwrite;
+    private final Progress progress;
+
+    private ExtractOptions(Builder builder) {
+        this.parallelism = builder.parallelism;
+        this.executor = builder.executor;
+        this.maxInFlightBytes = builder.maxInFlightBytes;
+        this.overwrite = builder.overwrite;
+        this.progress = builder.progress;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static ExtractOptions defaults() {
+        return builder().build();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Nullable
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public int getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public boolean isOverwrite() {
+        return overwrite;
+    }
+
+    @Nullable
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Notified once per extracted file, from the threads writing them, possibly several at once
+     */
+    @FunctionalInterface
+    public interface Progress {
+
+        /**
+         * @param path      the file just written
+         * @param extracted the number of files written so far, including this one
+         * @param total     the number of files to extract
+         */
+        void fileExtracted(@Nonnull String path, int extracted, int total);
+    }
+
+    public static final class Builder {
+
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private ExecutorService executor;
+        private int maxInFlightBytes = 64 * 1024 * 1024;
+        private boolean overwrite;
+        private Progress progress;
+
+        private Builder() {
+        }
+
+        /**
+         * Number of files decoded and written at once. Defaults to the number of processors.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Decode and write on the given executor instead of a pool owned by the extraction. It is not shut down.
+         */
+        public Builder executor(@Nullable ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Bound on the stored bytes read ahead of the workers. Defaults to 64 MB.
+         * Files larger than the bound are streamed from the archive by the worker instead.
+         */
+        public Builder maxInFlightBytes(int maxInFlightBytes) {
+            if (maxInFlightBytes < 1) {
+                throw new IllegalArgumentException("Invalid in-flight bound: " + maxInFlightBytes);
+            }
+            this.maxInFlightBytes = maxInFlightBytes;
+            return this;
+        }
+
+        /**
+         * Replace files that already exist in the target directory instead of failing. Defaults to false.
+         */
+        public Builder overwrite(boolean overwrite) {
+            this.overwrite = overwrite;
+            return this;
+        }
+
+        public Builder progress(@Nullable Progress progress) {
+            this.progress = progress;
+            return this;
+        }
+
+        public ExtractOptions build() {
+            return new ExtractOptions(this);
+        }
+    }
+}
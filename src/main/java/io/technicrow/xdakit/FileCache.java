@@ -0,0 +1,222 @@
+package io.technicrow.xdakit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of decoded file contents, bounded by their total size in bytes.
+ * <p>
+ * One cache can be shared by several documents; entries are keyed on the document and the path. Cached contents
+ * are never modified, so every hit can hand out its own stream over the same array. Thread-safe.
+ *
+ * @see XDADocument#setFileCache(FileCache)
+ */
+public final class FileCache {
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final LinkedHashMap<Key, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * A cache that holds files of up to an eighth of the budget
+     */
+    public FileCache(long maxBytes) {
+        this(maxBytes, maxBytes / 8);
+    }
+
+    /**
+     * @param maxBytes     total size of the cached contents
+     * @param maxFileBytes larger files are read straight from the archive and never cached
+     */
+    public FileCache(long maxBytes, long maxFileBytes) {
+        if (maxBytes < 0 || maxFileBytes < 0 || maxFileBytes > maxBytes) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes + ", " + maxFileBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE - 8);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * Drop every file cached for the document
+     */
+    public synchronized void invalidate(Object document) {
+        Iterator<Map.Entry<Key, CachedFile>> it = files.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, CachedFile> entry = it.next();
+            if (entry.getKey().document == document) {
+                bytes -= entry.getValue().getData().length;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        files.clear();
+        bytes = 0;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hitCount, missCount, evictionCount, files.size(), bytes);
+    }
+
+    @Nullable
+    synchronized CachedFile get(Object document, String path) {
+        CachedFile file = files.get(new Key(document, path));
+        if (file != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return file;
+    }
+
+    /**
+     * Look a file up without counting a hit or a miss, for reads that never fill the cache
+     */
+    @Nullable
+    synchronized CachedFile peek(Object document, String path) {
+        return files.get(new Key(document, path));
+    }
+
+    synchronized void put(Object document, String path, CachedFile file) {
+        long size = file.getData().length;
+        if (size > maxFileBytes) {
+            return;
+        }
+        CachedFile previous = files.put(new Key(document, path), file);
+        if (previous != null) {
+            bytes -= previous.getData().length;
+        }
+        bytes += size;
+        Iterator<CachedFile> eldest = files.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getData().length;
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Decoded contents of a file and the record it was read from
+     */
+    static final class CachedFile {
+
+        private final FileRecord record;
+        private final byte[] data;
+
+        CachedFile(FileRecord record, byte[] data) {
+            this.record = record;
+            this.data = data;
+        }
+
+        FileRecord getRecord() {
+            return record;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final class Key {
+
+        private final Object document;
+        private final String path;
+
+        private Key(Object document, String path) {
+            this.document = document;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return document == key.document && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(document) + path.hashCode();
+        }
+    }
+
+    /**
+     * Point-in-time cache statistics
+     */
+    public static final class Stats {
+
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final int fileCount;
+        private final long bytes;
+
+        private Stats(long hitCount, long missCount, long evictionCount, int fileCount, long bytes) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.fileCount = fileCount;
+            this.bytes = bytes;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public double getHitRate() {
+            long requests = hitCount + missCount;
+            return (requests == 0) ? 1.0 : (double) hitCount / requests;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        /**
+         * @return the total size of the cached contents
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                    .append("hitCount", hitCount)
+                    .append("missCount", missCount)
+                    .append("evictionCount", evictionCount)
+                    .append("fileCount", fileCount)
+                    .append("bytes", bytes)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.technicrow.xdakit;
+
+/**
+ * Location and encoding of a single file body in the bit stream
+ */
+final class FileRecord {
+
+    /**
+     * checkSum (1) + length (up to 8) + ECS (up to 8) + terminator (1)
+     */
+    static final int MAX_HEADER_LENGTH = 18;
+    static final int MAX_ECS_LENGTH = 8;
+
+    private final long dataOffset;
+    private final long length;
+    private final byte[] ecs;
+    private final byte checkSum;
+
+    FileRecord(long dataOffset, long length, byte[] ecs, byte checkSum) {
+        this.dataOffset = dataOffset;
+        this.length = length;
+        this.ecs = ecs;
+        this.checkSum = checkSum;
+    }
+
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    byte[] getEcs() {
+        return ecs.clone();
+    }
+
+    byte getCheckSum() {
+        return checkSum;
+    }
+
+    boolean isStored() {
+        return ecs.length == 0;
+    }
+}
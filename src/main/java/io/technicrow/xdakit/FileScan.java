@@ -0,0 +1,302 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.FileStream;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher of every live file of a document, decoded in memory, in the order the bodies are stored.
+ * <p>
+ * Bodies are read and decoded on an executor, at most {@code parallelism} at a time, and only while the subscriber
+ * has outstanding demand plus a prefetch of {@code parallelism} files and the bytes not yet delivered stay under
+ * {@code maxInFlightBytes}. A slow subscriber therefore throttles reading instead of filling the heap.
+ * <p>
+ * A body is charged at its stored size when it is dispatched, since its decoded size is only known once it has been
+ * decoded, and at its decoded size from then on. The bound therefore applies to stored bytes when reading starts:
+ * encoded files being decoded at once can exceed it by their expansion, but nothing more is dispatched until the
+ * total is back under it.
+ * <p>
+ * {@link Subscriber} and {@link Subscription} follow {@code java.util.concurrent.Flow} and the reactive streams
+ * rules, so adapting to either takes one lambda per method; they are declared here because the library targets
+ * Java 8. Signals to a subscriber are never concurrent.
+ */
+public final class FileScan {
+
+    private final XDADocument document;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long maxInFlightBytes = 64L * 1024 * 1024;
+    private Executor executor = AsyncExecutors.defaultExecutor();
+
+    FileScan(XDADocument document) {
+        this.document = document;
+    }
+
+    /**
+     * Number of files read and decoded at once, and files prefetched beyond demand. Defaults to the number of
+     * processors.
+     */
+    public FileScan parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Bound on the bytes read or decoded but not yet delivered, checked against stored sizes when a file is
+     * dispatched and decoded sizes once it is ready. Defaults to 64 MB.
+     * A file larger than the bound is still delivered, alone.
+     */
+    public FileScan maxInFlightBytes(long maxInFlightBytes) {
+        if (maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("Invalid in-flight bound: " + maxInFlightBytes);
+        }
+        this.maxInFlightBytes = maxInFlightBytes;
+        return this;
+    }
+
+    /**
+     * Read and decode on {@code executor} instead of the default of {@link XDA#getFileAsync(String)}
+     */
+    public FileScan executor(@Nonnull Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Start a scan for {@code subscriber}. Every subscription scans the archive anew.
+     */
+    public void subscribe(@Nonnull Subscriber<? super FileStream> subscriber) {
+        List<Slot> slots;
+        try {
+            slots = resolveSlots();
+        } catch (IOException | XDAException | RuntimeException e) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        ScanSubscription subscription = new ScanSubscription(subscriber, slots, parallelism, maxInFlightBytes, executor);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private List<Slot> resolveSlots() throws IOException, XDAException {
+        List<String> paths = document.listAllFiles();
+        List<Slot> slots = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            FileRecord record = document.findRecord(path);
+            if (record == null) {
+                throw new XDAException("Cannot resolve a listed path: " + path);
+            }
+            slots.add(new Slot(path, record));
+        }
+        slots.sort(Comparator.comparingLong(slot -> slot.record.getDataOffset()));
+        return slots;
+    }
+
+    /**
+     * Receiver of a scan, shaped like {@code java.util.concurrent.Flow.Subscriber}
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(@Nonnull Subscription subscription);
+
+        void onNext(@Nonnull T item);
+
+        void onError(@Nonnull Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Demand of a subscriber, shaped like {@code java.util.concurrent.Flow.Subscription}
+     */
+    public interface Subscription {
+
+        /**
+         * Ask for {@code n} more files; a non-positive {@code n} fails the scan with an
+         * {@link IllegalArgumentException}
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    private static final class Slot {
+
+        private final String path;
+        private final FileRecord record;
+        private long charged;
+        private volatile FileStream file;
+        private volatile Throwable error;
+        private volatile boolean done;
+
+        private Slot(String path, FileRecord record) {
+            this.path = path;
+            this.record = record;
+        }
+    }
+
+    private final class ScanSubscription implements Subscription {
+
+        private final Subscriber<? super FileStream> subscriber;
+        private final List<Slot> slots;
+        private final int parallelism;
+        private final long maxInFlightBytes;
+        private final Executor executor;
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicLong inFlightBytes = new AtomicLong();
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        // Only touched by the thread draining
+        private int emitted;
+        private int dispatched;
+
+        private ScanSubscription(Subscriber<? super FileStream> subscriber, List<Slot> slots, int parallelism,
+                                 long maxInFlightBytes, Executor executor) {
+            this.subscriber = subscriber;
+            this.slots = slots;
+            this.parallelism = parallelism;
+            this.maxInFlightBytes = maxInFlightBytes;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                requested.getAndUpdate(current -> (current + n < 0) ? Long.MAX_VALUE : current + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Deliver what is ready and start what demand allows. Whichever thread gets here first does the work of
+         * every call made meanwhile, so signals are serialized.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (cancelled) {
+                    emitted = slots.size();
+                } else if (invalidRequest != null) {
+                    cancelled = true;
+                    subscriber.onError(invalidRequest);
+                } else {
+                    emit();
+                    if (!cancelled) {
+                        dispatch();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            while (emitted < slots.size()) {
+                Slot head = slots.get(emitted);
+                if (!head.done || (head.error == null && requested.get() == 0)) {
+                    return;
+                }
+                slots.set(emitted++, null);
+                inFlightBytes.addAndGet(-head.charged);
+                if (head.error != null) {
+                    cancelled = true;
+                    subscriber.onError(head.error);
+                    return;
+                }
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                subscriber.onNext(head.file);
+                if (cancelled) {
+                    return;
+                }
+            }
+            cancelled = true;
+            subscriber.onComplete();
+        }
+
+        private void dispatch() {
+            long window = Math.min(requested.get(), Integer.MAX_VALUE) + parallelism;
+            while (dispatched < slots.size() && running.get() < parallelism && dispatched - emitted < window
+                    && (inFlightBytes.get() < maxInFlightBytes || dispatched == emitted)) {
+                Slot slot = slots.get(dispatched++);
+                slot.charged = slot.record.getLength();
+                inFlightBytes.addAndGet(slot.charged);
+                running.incrementAndGet();
+                try {
+                    executor.execute(() -> load(slot));
+                } catch (RuntimeException e) {
+                    running.decrementAndGet();
+                    slot.error = e;
+                    slot.done = true;
+                }
+            }
+        }
+
+        private void load(Slot slot) {
+            try {
+                if (!cancelled) {
+                    byte[] data = decode(document.readRaw(slot.record), slot.record.getEcs());
+                    inFlightBytes.addAndGet(data.length - slot.charged);
+                    slot.charged = data.length;
+                    slot.file = new FileStream(slot.path, slot.record.getCheckSum(), slot.record.getLength(),
+                            slot.record.getEcs(), new ByteArrayInputStream(data));
+                }
+            } catch (Throwable e) {
+                slot.error = e;
+            } finally {
+                slot.done = true;
+                running.decrementAndGet();
+                drain();
+            }
+        }
+    }
+
+    private static byte[] decode(byte[] stored, byte[] ecs) throws IOException, XDAException {
+        if (EcsCodecs.isStored(ecs)) {
+            return stored;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, stored.length * 2));
+        try (InputStream in = new InputStreamDecorator(new ByteArrayInputStream(stored), ecs)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
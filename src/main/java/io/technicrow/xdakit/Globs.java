@@ -0,0 +1,232 @@
+package io.technicrow.xdakit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Glob patterns over archive paths, with the syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)}:
+ * {@code *} matches within a name, {@code **} across names, {@code ?} one character, {@code [...]} a character
+ * class ({@code [!...]} negated), {@code {a,b}} either alternative, and {@code \} escapes.
+ */
+final class Globs {
+
+    private static final String REGEX_META = ".^$+{[]|()";
+    private static final String GLOB_META = "\\*?[{";
+
+    private Globs() {
+    }
+
+    static Pattern compile(String glob) {
+        return Pattern.compile(toRegex(glob));
+    }
+
+    /**
+     * The live paths of {@code index} matching {@code glob}, in index order.
+     * The pattern is walked one name at a time: literal names are looked up and wildcard names only visit the
+     * entries of their directory. From a name containing {@code **} on, the paths under the directory reached so far
+     * are scanned.
+     */
+    static List<String> select(PathIndex index, String glob) {
+        Pattern pattern = compile(glob);
+        List<String> result = new ArrayList<>();
+        List<String> names = split(glob);
+        if (names == null) {
+            scan(index, literalPrefix(glob), pattern, result);
+        } else {
+            walk(index, "", names, 0, pattern, result);
+        }
+        return result;
+    }
+
+    private static void walk(PathIndex index, String directory, List<String> names, int depth, Pattern pattern,
+                             List<String> result) {
+        String name = names.get(depth);
+        boolean last = depth == names.size() - 1;
+        if (name.contains("**")) {
+            scan(index, directory, pattern, result);
+        } else if (isLiteral(name)) {
+            String path = directory + literalPrefix(name);
+            if (!last) {
+                walk(index, path + "/", names, depth + 1, pattern, result);
+            } else if (index.offsetOf(path) != PathIndex.NO_OFFSET) {
+                result.add(path);
+            }
+        } else {
+            Pattern namePattern = compile(name);
+            for (String child : index.liveChildren(directory)) {
+                boolean isDirectory = child.endsWith("/");
+                String childName = isDirectory ? child.substring(0, child.length() - 1) : child;
+                if (isDirectory == last || !namePattern.matcher(childName).matches()) {
+                    continue;
+                }
+                if (last) {
+                    result.add(directory + childName);
+                } else {
+                    walk(index, directory + child, names, depth + 1, pattern, result);
+                }
+            }
+        }
+    }
+
+    private static void scan(PathIndex index, String prefix, Pattern pattern, List<String> result) {
+        for (String path : index.livePathsWithPrefix(prefix)) {
+            if (pattern.matcher(path).matches()) {
+                result.add(path);
+            }
+        }
+    }
+
+    /**
+     * Split a glob into names at each {@code /} outside a group
+     *
+     * @return the names, or null if a group holds a {@code /}
+     */
+    private static List<String> split(String glob) {
+        List<String> names = new ArrayList<>();
+        boolean inGroup = false;
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{') {
+                inGroup = true;
+            } else if (c == '}') {
+                inGroup = false;
+            } else if (c == '/') {
+                if (inGroup) {
+                    return null;
+                }
+                names.add(glob.substring(start, i));
+                start = i + 1;
+            }
+        }
+        names.add(glob.substring(start));
+        return names;
+    }
+
+    private static boolean isLiteral(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (GLOB_META.indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the unescaped text before the first wildcard, group or class
+     */
+    private static String literalPrefix(String glob) {
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                prefix.append(glob.charAt(++i));
+            } else if (GLOB_META.indexOf(c) >= 0) {
+                break;
+            } else {
+                prefix.append(c);
+            }
+        }
+        return prefix.toString();
+    }
+
+    static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            switch (c) {
+                case '\\':
+                    if (i == glob.length()) {
+                        throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    }
+                    char next = glob.charAt(i++);
+                    if (GLOB_META.indexOf(next) >= 0 || REGEX_META.indexOf(next) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(next);
+                    break;
+                case '/':
+                    regex.append(c);
+                    break;
+                case '[':
+                    i = appendClass(glob, i, regex);
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new PatternSyntaxException("Cannot nest groups", glob, i - 1);
+                    }
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? ")|(?:" : ",");
+                    break;
+                case '*':
+                    if (i < glob.length() && glob.charAt(i) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                default:
+                    if (REGEX_META.indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+        }
+        return regex.append('$').toString();
+    }
+
+    private static int appendClass(String glob, int i, StringBuilder regex) {
+        regex.append("[[^/]&&[");
+        if (i < glob.length() && glob.charAt(i) == '^') {
+            regex.append("\\^");
+            i++;
+        } else if (i < glob.length() && glob.charAt(i) == '!') {
+            regex.append('^');
+            i++;
+        }
+        boolean first = true;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            if (c == ']' && !first) {
+                regex.append("]]");
+                return i;
+            }
+            if (c == '/') {
+                throw new PatternSyntaxException("Explicit '/' in a class", glob, i - 1);
+            }
+            if (c == '\\' || c == '[' || (c == '&' && i < glob.length() && glob.charAt(i) == '&')) {
+                regex.append('\\');
+            }
+            regex.append(c);
+            first = false;
+        }
+        throw new PatternSyntaxException("Missing ']'", glob, i - 1);
+    }
+}
@@ -0,0 +1,116 @@
+package io.technicrow.xdakit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checkpoints into a deflate stream, in the manner of zlib's zran example.
+ * <p>
+ * At the first block boundary after every {@code span} decoded bytes the bit position and the preceding 32 KB
+ * window are recorded, so decoding can resume there instead of at the start of the stream.
+ */
+final class InflateIndex {
+
+    static final long DEFAULT_SPAN = 1L << 20;
+
+    private final long span;
+    private final long[] outputPositions;
+    private final long[] bitPositions;
+    private final byte[][] windows;
+    private final long length;
+    private final long windowBytes;
+
+    private InflateIndex(long span, long[] outputPositions, long[] bitPositions, byte[][] windows, long length) {
+        this.span = span;
+        this.outputPositions = outputPositions;
+        this.bitPositions = bitPositions;
+        this.windows = windows;
+        this.length = length;
+        long bytes = 0;
+        for (byte[] window : windows) {
+            bytes += window.length;
+        }
+        this.windowBytes = bytes;
+    }
+
+    /**
+     * Decode a whole deflate stream, recording a checkpoint about every {@code span} bytes
+     */
+    static InflateIndex build(InputStream deflate, long span) throws IOException {
+        DeflateDecoder decoder = new DeflateDecoder(deflate);
+        List<Long> outputPositions = new ArrayList<>();
+        List<Long> bitPositions = new ArrayList<>();
+        List<byte[]> windows = new ArrayList<>();
+        outputPositions.add(0L);
+        bitPositions.add(0L);
+        windows.add(new byte[0]);
+        byte[] buffer = new byte[64 * 1024];
+        long next = span;
+        while (decoder.read(buffer, 0, buffer.length) != -1) {
+            if (decoder.atBlockBoundary() && decoder.outputPosition() >= next) {
+                outputPositions.add(decoder.outputPosition());
+                bitPositions.add(decoder.bitPosition());
+                windows.add(decoder.window());
+                next = decoder.outputPosition() + span;
+            }
+        }
+        int count = outputPositions.size();
+        long[] outputs = new long[count];
+        long[] bits = new long[count];
+        for (int i = 0; i < count; i++) {
+            outputs[i] = outputPositions.get(i);
+            bits[i] = bitPositions.get(i);
+        }
+        return new InflateIndex(span, outputs, bits, windows.toArray(new byte[0][]), decoder.outputPosition());
+    }
+
+    long getSpan() {
+        return span;
+    }
+
+    /**
+     * @return the decoded length of the stream
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the total size of the saved windows, which is most of the memory the index holds
+     */
+    long getWindowBytes() {
+        return windowBytes;
+    }
+
+    int getCheckpointCount() {
+        return outputPositions.length;
+    }
+
+    /**
+     * @return the last checkpoint at or before {@code position}
+     */
+    int checkpointBefore(long position) {
+        int index = Arrays.binarySearch(outputPositions, position);
+        return (index >= 0) ? index : -index - 2;
+    }
+
+    long outputPosition(int checkpoint) {
+        return outputPositions[checkpoint];
+    }
+
+    long bitPosition(int checkpoint) {
+        return bitPositions[checkpoint];
+    }
+
+    /**
+     * Resume decoding at a checkpoint
+     *
+     * @param deflate the stream from byte {@code bitPosition(checkpoint) / 8} on
+     */
+    DeflateDecoder resume(int checkpoint, InputStream deflate) throws IOException {
+        return new DeflateDecoder(deflate, bitPositions[checkpoint], outputPositions[checkpoint], windows[checkpoint]);
+    }
+}
@@ -0,0 +1,87 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Bounded pool of {@link Inflater}s, so decoding a file or a table does not allocate and initialize native zlib
+ * state each time. Streams from {@link #inflate(InputStream)} reset their inflater and give it back when closed;
+ * inflaters beyond the pool's capacity are ended right away. Thread-safe.
+ */
+final class InflaterPool {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final InflaterPool SHARED = new InflaterPool(Runtime.getRuntime().availableProcessors() * 4);
+
+    private final BlockingQueue<Inflater> idle;
+
+    InflaterPool(int capacity) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    static InflaterPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Inflate {@code in} with a pooled inflater, returned to the pool when the stream is closed
+     */
+    static InputStream inflate(InputStream in) {
+        return SHARED.newInputStream(in);
+    }
+
+    InputStream newInputStream(InputStream in) {
+        return new PooledInflaterInputStream(in, acquire());
+    }
+
+    Inflater acquire() {
+        Inflater inflater = idle.poll();
+        return (inflater != null) ? inflater : new Inflater();
+    }
+
+    void release(Inflater inflater) {
+        inflater.reset();
+        if (!idle.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    int idleCount() {
+        return idle.size();
+    }
+
+    private final class PooledInflaterInputStream extends InflaterInputStream {
+
+        private boolean released;
+
+        private PooledInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            if (released) {
+                throw new IOException("Stream closed");
+            }
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) {
+                return;
+            }
+            released = true;
+            try {
+                super.close();
+            } finally {
+                release(inf);
+            }
+        }
+    }
+}
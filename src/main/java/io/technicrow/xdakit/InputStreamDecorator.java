@@ -1,11 +1,8 @@
 package io.technicrow.xdakit;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.InflaterInputStream;
 
 /**
  * Helper class for decorating (maybe inflated) input streams
@@ -16,7 +13,7 @@ public class InputStreamDecorator extends InputStream {
 
     public InputStreamDecorator(InputStream source, boolean shouldDeflate) {
         if (shouldDeflate) {
-            this.source = new InflaterInputStream(source);
+            this.source = InflaterPool.inflate(source);
         } else {
             this.source = source;
         }
@@ -29,18 +26,8 @@ public class InputStreamDecorator extends InputStream {
             InputStream result = source;
             for (int i = ecs.length - 1; i >= 0; i--) {
                 byte encryption = ecs[i];
-                if (encryption == 0) {
-                    continue;
-                }
-                switch (encryption) {
-                    case 0x02:
-                        result = new InflaterInputStream(result);
-                        break;
-                    case 0x10:
-                        result = new BZip2CompressorInputStream(result);
-                        break;
-                    default:
-                        throw new XDAException("Invalid encryption mark: " + Integer.toHexString(encryption));
+                if (encryption != 0) {
+                    result = EcsCodecs.require(encryption).decode(result);
                 }
             }
             this.source = result;
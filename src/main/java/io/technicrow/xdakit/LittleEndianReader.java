@@ -0,0 +1,219 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.NameValue;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffered little-endian reader over a {@link ByteBuffer} or an {@link InputStream}.
+ * <p>
+ * Reading a primitive field does not allocate. A reader can be {@link #reset(InputStream) reset} onto another
+ * source, so one instance (and its buffers) can serve a whole parsing pass. Instances are not thread-safe.
+ */
+final class LittleEndianReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    private static final int MAX_STRING_SIZE = 2048;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ByteBuffer streamBuffer;
+    private final boolean readAhead;
+    private ByteBuffer buffer;
+    private InputStream in;
+    private byte[] stringBuffer = new byte[64];
+
+    private LittleEndianReader(int bufferSize, boolean readAhead) {
+        this.streamBuffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.readAhead = readAhead;
+        this.buffer = EMPTY;
+    }
+
+    /**
+     * Create a reader with no source yet. Point it at one with {@link #reset(InputStream)}.
+     */
+    static LittleEndianReader create() {
+        return new LittleEndianReader(DEFAULT_BUFFER_SIZE, true);
+    }
+
+    static LittleEndianReader of(@Nonnull InputStream in) {
+        return create().reset(in);
+    }
+
+    /**
+     * Read {@code in} without ever consuming more bytes than asked for, so the caller can keep using the stream
+     */
+    static LittleEndianReader ofUnbuffered(@Nonnull InputStream in) {
+        return new LittleEndianReader(16, false).reset(in);
+    }
+
+    /**
+     * Read the remaining bytes of {@code buffer}. Its position and order are left untouched.
+     */
+    static LittleEndianReader of(@Nonnull ByteBuffer buffer) {
+        return new LittleEndianReader(0, false).reset(buffer);
+    }
+
+    /**
+     * Start reading {@code in}, dropping anything still buffered from the previous source
+     */
+    LittleEndianReader reset(@Nonnull InputStream in) {
+        if (streamBuffer.capacity() == 0) {
+            throw new IllegalStateException("This reader was created over a ByteBuffer");
+        }
+        this.in = in;
+        this.buffer = streamBuffer;
+        streamBuffer.clear().limit(0);
+        return this;
+    }
+
+    /**
+     * Start reading the remaining bytes of {@code buffer}
+     */
+    LittleEndianReader reset(@Nonnull ByteBuffer buffer) {
+        this.in = null;
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return this;
+    }
+
+    byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    short readShort() throws IOException {
+        require(2);
+        return buffer.getShort();
+    }
+
+    int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    /**
+     * Read an offset or length of {@code bitsParam} bytes. 2 and 4 byte values are unsigned.
+     */
+    long readByBitsParam(byte bitsParam) throws IOException {
+        switch (bitsParam) {
+            case 0x02:
+                return readShort() & 0xffffL;
+            case 0x04:
+                return readInt() & 0xffffffffL;
+            case 0x08:
+                return readLong();
+            default:
+                throw new IllegalArgumentException("Invalid bitsParam: " + bitsParam);
+        }
+    }
+
+    NameValue readNameValue() throws IOException {
+        require(16);
+        long low = buffer.getLong();
+        long high = buffer.getLong();
+        return new NameValue(high, low);
+    }
+
+    void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining() && !fill(1)) {
+                throw new EOFException();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read a NUL-terminated UTF-8 string
+     */
+    String readString() throws IOException {
+        int length = 0;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill(1)) {
+                throw new IOException("Unfinished string");
+            }
+            byte b = buffer.get();
+            if (b == 0) {
+                return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+            }
+            if (length == MAX_STRING_SIZE) {
+                throw new IOException("Unfinished string");
+            }
+            if (length == stringBuffer.length) {
+                stringBuffer = Arrays.copyOf(stringBuffer, Math.min(length * 2, MAX_STRING_SIZE));
+            }
+            stringBuffer[length++] = b;
+        }
+    }
+
+    void skipFully(long n) throws IOException {
+        while (n > 0) {
+            if (!buffer.hasRemaining() && !fill(1)) {
+                throw new EOFException();
+            }
+            int step = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + step);
+            n -= step;
+        }
+    }
+
+    /**
+     * @return whether at least {@code n} more bytes can be read
+     */
+    boolean hasRemaining(int n) throws IOException {
+        return buffer.remaining() >= n || fill(n);
+    }
+
+    private void require(int n) throws IOException {
+        if (buffer.remaining() < n && !fill(n)) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Top the stream buffer up until {@code n} bytes are available
+     *
+     * @return false if the source ends first
+     */
+    private boolean fill(int n) throws IOException {
+        if (in == null) {
+            return false;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < n) {
+                int wanted = readAhead ? buffer.remaining() : n - buffer.position();
+                int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), wanted);
+                if (read < 0) {
+                    return false;
+                }
+                buffer.position(buffer.position() + read);
+            }
+            return true;
+        } finally {
+            buffer.flip();
+        }
+    }
+}
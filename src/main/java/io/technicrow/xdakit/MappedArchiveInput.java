@@ -0,0 +1,202 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link ArchiveInput} reading from memory-mapped segments of the file, or from a single buffer already in memory.
+ * Files larger than a single segment (and therefore larger than 2 GB) are mapped piecewise.
+ */
+final class MappedArchiveInput extends ArchiveInput {
+
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long length;
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+
+    private MappedArchiveInput(FileChannel channel, int segmentSize) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        this.segmentSize = segmentSize;
+        int count = Math.toIntExact((length + segmentSize - 1) / segmentSize);
+        this.segments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i * segmentSize;
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, length - start));
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments[i] = segment;
+        }
+    }
+
+    private MappedArchiveInput(ByteBuffer buffer) {
+        this.channel = null;
+        this.length = buffer.remaining();
+        this.segmentSize = Math.max(1, buffer.remaining());
+        this.segments = new ByteBuffer[]{buffer.slice().order(ByteOrder.LITTLE_ENDIAN)};
+    }
+
+    /**
+     * Read straight from the remaining bytes of {@code buffer}, without copying them
+     */
+    static MappedArchiveInput wrap(ByteBuffer buffer) {
+        return new MappedArchiveInput(buffer);
+    }
+
+    static MappedArchiveInput open(File file) throws IOException {
+        return open(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    static MappedArchiveInput open(File file, int segmentSize) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new MappedArchiveInput(channel, segmentSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    long length() {
+        return length;
+    }
+
+    @Override
+    int read(ByteBuffer dst, long position) {
+        if (position >= length) {
+            return -1;
+        }
+        int done = 0;
+        while (dst.hasRemaining() && position < length) {
+            ByteBuffer segment = segmentAt(position).duplicate();
+            segment.position(offsetOf(position));
+            if (segment.remaining() > dst.remaining()) {
+                segment.limit(segment.position() + dst.remaining());
+            }
+            int n = segment.remaining();
+            dst.put(segment);
+            done += n;
+            position += n;
+        }
+        return done;
+    }
+
+    @Override
+    InputStream openRegion(long position, long length) throws IOException {
+        if (position < 0 || length < 0 || position + length > this.length) {
+            throw new EOFException("Region out of range: " + position + "+" + length);
+        }
+        return new RegionStream(position, position + length);
+    }
+
+    @Override
+    void transferTo(long position, long length, WritableByteChannel target) throws IOException {
+        if (channel != null) {
+            transfer(channel, position, length, target);
+            return;
+        }
+        ByteBuffer region = slice(position, (int) length);
+        while (region.hasRemaining()) {
+            target.write(region);
+        }
+    }
+
+    @Override
+    ByteBuffer slice(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > this.length) {
+            throw new EOFException("Region out of range: " + position + "+" + length);
+        }
+        ByteBuffer segment = segmentAt(position).duplicate();
+        int offset = offsetOf(position);
+        if (offset + length > segment.limit()) {
+            // Spans two segments
+            return null;
+        }
+        segment.limit(offset + length).position(offset);
+        return segment.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mapped buffers are released by the garbage collector once unreachable
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer segmentAt(long position) {
+        return segments[(int) (position / segmentSize)];
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    private byte byteAt(long position) throws IOException {
+        if (position >= length) {
+            throw new EOFException();
+        }
+        return segmentAt(position).get(offsetOf(position));
+    }
+
+    /**
+     * Stream over a window of the mapped segments
+     */
+    private final class RegionStream extends InputStream {
+
+        private final long end;
+        private long current;
+
+        private RegionStream(long start, long end) {
+            this.current = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (current >= end) {
+                return -1;
+            }
+            return byteAt(current++) & 0xff;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (current >= end) {
+                return -1;
+            }
+            ByteBuffer segment = segmentAt(current).duplicate();
+            segment.position(offsetOf(current));
+            int n = (int) Math.min(Math.min(segment.remaining(), len), end - current);
+            segment.get(b, off, n);
+            current += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - current));
+            current += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - current);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.NameValue;
+
+/**
+ * Open-addressing map from a 128-bit NameValue to a path.
+ * Keys are kept in a flat {@code long[]} (high and low half side by side) and probed linearly,
+ * so resolving an item costs no allocation and no pointer chasing.
+ */
+final class NameValueMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private String[] values;
+    private int size;
+    private int mask;
+
+    NameValueMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    NameValueMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(NameValue nameValue) {
+        return get(nameValue.getHigh(), nameValue.getLow());
+    }
+
+    String get(long high, long low) {
+        int slot = slotOf(high, low);
+        while (values[slot] != null) {
+            if (keys[slot * 2] == high && keys[slot * 2 + 1] == low) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    void put(NameValue nameValue, String path) {
+        put(nameValue.getHigh(), nameValue.getLow(), path);
+    }
+
+    /**
+     * Map the NameValue to a path, replacing any previous mapping. The path must not be null.
+     */
+    void put(long high, long low, String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null");
+        }
+        int slot = slotOf(high, low);
+        while (values[slot] != null) {
+            if (keys[slot * 2] == high && keys[slot * 2 + 1] == low) {
+                values[slot] = path;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot * 2] = high;
+        keys[slot * 2 + 1] = low;
+        values[slot] = path;
+        if (++size * 2 > values.length) {
+            rehash();
+        }
+    }
+
+    private int slotOf(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * 2];
+        values = new String[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        String[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                long high = oldKeys[i * 2];
+                long low = oldKeys[i * 2 + 1];
+                int slot = slotOf(high, low);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot * 2] = high;
+                keys[slot * 2 + 1] = low;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
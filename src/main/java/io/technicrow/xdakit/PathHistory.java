@@ -0,0 +1,96 @@
+package io.technicrow.xdakit;
+
+import java.util.Arrays;
+
+/**
+ * Every version of every path, by {@link PathIndex} ordinal.
+ * <p>
+ * A version is the entry an item was written in and the offset it points at ({@link PathIndex#NO_OFFSET} for a
+ * deletion). Versions of one path are kept in entry order, so the state of a path as of any entry is a binary
+ * search over that path's versions and a view of the archive as of an entry needs nothing but the entry index.
+ */
+final class PathHistory {
+
+    private final int[] starts;
+    private final int[] entries;
+    private final long[] offsets;
+
+    private PathHistory(int[] starts, int[] entries, long[] offsets) {
+        this.starts = starts;
+        this.entries = entries;
+        this.offsets = offsets;
+    }
+
+    static Builder builder(int pathCount) {
+        return new Builder(pathCount);
+    }
+
+    /**
+     * @return the offset of the path as of the given entry (inclusive), or {@link PathIndex#NO_OFFSET}
+     * if it did not exist or was deleted by then
+     */
+    long offsetAsOf(int ordinal, int entryIndex) {
+        int low = starts[ordinal];
+        int high = starts[ordinal + 1] - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid] <= entryIndex) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (found < 0) ? PathIndex.NO_OFFSET : offsets[found];
+    }
+
+    /**
+     * Collects versions, which must be added in entry order
+     */
+    static final class Builder {
+
+        private final int pathCount;
+        private int[] ordinals = new int[64];
+        private int[] entries = new int[64];
+        private long[] offsets = new long[64];
+        private int count;
+
+        private Builder(int pathCount) {
+            this.pathCount = pathCount;
+        }
+
+        Builder add(int ordinal, int entryIndex, long offset) {
+            if (count == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, count * 2);
+                entries = Arrays.copyOf(entries, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            ordinals[count] = ordinal;
+            entries[count] = entryIndex;
+            offsets[count] = offset;
+            count++;
+            return this;
+        }
+
+        PathHistory build() {
+            // Stable counting sort by ordinal keeps each path's versions in entry order
+            int[] starts = new int[pathCount + 1];
+            for (int i = 0; i < count; i++) {
+                starts[ordinals[i] + 1]++;
+            }
+            for (int i = 0; i < pathCount; i++) {
+                starts[i + 1] += starts[i];
+            }
+            int[] next = Arrays.copyOf(starts, pathCount);
+            int[] sortedEntries = new int[count];
+            long[] sortedOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                int slot = next[ordinals[i]]++;
+                sortedEntries[slot] = entries[i];
+                sortedOffsets[slot] = offsets[i];
+            }
+            return new PathHistory(starts, sortedEntries, sortedOffsets);
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable sorted path table with a parallel array of file offsets.
+ * <p>
+ * Paths are kept as UTF-8 in blocks of {@value #BLOCK_SIZE}. The first path of each block is stored whole and the
+ * others only as the suffix following the prefix shared with their predecessor (front coding), so a path costs a
+ * few bytes of suffix plus its offset. Lookups binary search the block heads and then scan one block.
+ */
+final class PathIndex {
+
+    static final long NO_OFFSET = -1L;
+    private static final int BLOCK_SIZE = 16;
+
+    private final int size;
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final long[] offsets;
+    private final int maxLength;
+    private final int[] liveOrdinals;
+    private final List<String> paths = new PathList();
+    private final List<String> livePaths;
+
+    private PathIndex(int size, byte[] data, int[] blockOffsets, long[] offsets, int maxLength) {
+        this.size = size;
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.offsets = offsets;
+        this.maxLength = maxLength;
+        int live = 0;
+        int[] ordinals = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] != NO_OFFSET) {
+                ordinals[live++] = i;
+            }
+        }
+        this.liveOrdinals = Arrays.copyOf(ordinals, live);
+        this.livePaths = (live == size) ? paths : new LivePathList();
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the ordinal of the path, or -1 if it is not in the index
+     */
+    int indexOf(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        byte[] current = new byte[maxLength];
+        int[] length = new int[1];
+        int ordinal = lowerBound(key, current, length);
+        return (length[0] >= 0 && compare(current, 0, length[0], key) == 0) ? ordinal : -1;
+    }
+
+    /**
+     * @return the offset stored for the ordinal, or {@link #NO_OFFSET}
+     */
+    long offsetAt(int ordinal) {
+        return offsets[ordinal];
+    }
+
+    /**
+     * @return the offset of the path, or {@link #NO_OFFSET} if it is unknown or has no file
+     */
+    long offsetOf(String path) {
+        int ordinal = indexOf(path);
+        return (ordinal < 0) ? NO_OFFSET : offsets[ordinal];
+    }
+
+    String pathAt(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Index: " + ordinal + ", Size: " + size);
+        }
+        byte[] current = new byte[maxLength];
+        return new String(current, 0, decodeAt(ordinal, current), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return all paths in sorted order, as an unmodifiable view
+     */
+    List<String> paths() {
+        return paths;
+    }
+
+    /**
+     * @return the paths that have a file, in sorted order, as an unmodifiable view
+     */
+    List<String> livePaths() {
+        return livePaths;
+    }
+
+    /**
+     * @return the paths that have a file and start with {@code prefix}, in sorted order
+     */
+    List<String> livePathsWithPrefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        byte[] upper = successor(key, key.length);
+        int from = liveIndexFrom(lowerBound(key));
+        int to = (upper == null) ? liveOrdinals.length : liveIndexFrom(lowerBound(upper));
+        List<String> result = new ArrayList<>(Math.max(0, to - from));
+        if (from >= to) {
+            return result;
+        }
+        int ordinal = liveOrdinals[from];
+        int block = ordinal / BLOCK_SIZE;
+        byte[] current = new byte[maxLength];
+        int[] cursor = {blockOffsets[block]};
+        int length = 0;
+        for (int i = block * BLOCK_SIZE; i < ordinal; i++) {
+            decodeNext(i, cursor, current);
+        }
+        for (int live = from; live < to; live++) {
+            while (ordinal <= liveOrdinals[live]) {
+                if (ordinal % BLOCK_SIZE == 0) {
+                    cursor[0] = blockOffsets[ordinal / BLOCK_SIZE];
+                }
+                length = decodeNext(ordinal++, cursor, current);
+            }
+            result.add(new String(current, 0, length, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * The names directly under {@code directory}, which is empty for the top level or ends with {@code /}.
+     * A name followed by {@code /} is a subdirectory holding at least one file; each subdirectory costs one lookup,
+     * however many files it holds.
+     *
+     * @return the names in sorted order
+     */
+    List<String> liveChildren(String directory) {
+        byte[] key = directory.getBytes(StandardCharsets.UTF_8);
+        byte[] upper = successor(key, key.length);
+        int end = (upper == null) ? size : lowerBound(upper);
+        List<String> result = new ArrayList<>();
+        int live = liveIndexFrom(lowerBound(key));
+        while (live < liveOrdinals.length && liveOrdinals[live] < end) {
+            byte[] path = bytesAt(liveOrdinals[live]);
+            int slash = key.length;
+            while (slash < path.length && path[slash] != '/') {
+                slash++;
+            }
+            if (slash == path.length) {
+                if (slash > key.length) {
+                    result.add(new String(path, key.length, slash - key.length, StandardCharsets.UTF_8));
+                }
+                live++;
+            } else {
+                result.add(new String(path, key.length, slash + 1 - key.length, StandardCharsets.UTF_8));
+                // Jump past everything under the subdirectory
+                live = liveIndexFrom(lowerBound(successor(path, slash + 1)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first ordinal whose path is not less than {@code key}, or the size if there is none
+     */
+    private int lowerBound(byte[] key) {
+        return lowerBound(key, new byte[maxLength], new int[1]);
+    }
+
+    /**
+     * Binary search the block heads, then scan the one block that can hold {@code key}.
+     * The path at the returned ordinal is left in {@code current} with its length in {@code length[0]}, which is -1
+     * if the ordinal starts the next block and was not decoded.
+     *
+     * @return the first ordinal whose path is not less than {@code key}, or the size if there is none
+     */
+    private int lowerBound(byte[] key, byte[] current, int[] length) {
+        length[0] = -1;
+        if (size == 0) {
+            return 0;
+        }
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compareBlockHead(mid, key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int[] cursor = {blockOffsets[low]};
+        int end = Math.min(size, (low + 1) * BLOCK_SIZE);
+        for (int i = low * BLOCK_SIZE; i < end; i++) {
+            int decoded = decodeNext(i, cursor, current);
+            if (compare(current, 0, decoded, key) >= 0) {
+                length[0] = decoded;
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the position in {@link #liveOrdinals} of the first live ordinal not less than {@code ordinal}
+     */
+    private int liveIndexFrom(int ordinal) {
+        int i = Arrays.binarySearch(liveOrdinals, ordinal);
+        return (i >= 0) ? i : -i - 1;
+    }
+
+    private byte[] bytesAt(int ordinal) {
+        byte[] current = new byte[maxLength];
+        return Arrays.copyOf(current, decodeAt(ordinal, current));
+    }
+
+    /**
+     * Decode the path at {@code ordinal} into {@code current} by walking its block from the head
+     *
+     * @return the length of the path
+     */
+    private int decodeAt(int ordinal, byte[] current) {
+        int block = ordinal / BLOCK_SIZE;
+        int[] cursor = {blockOffsets[block]};
+        int length = 0;
+        for (int i = block * BLOCK_SIZE; i <= ordinal; i++) {
+            length = decodeNext(i, cursor, current);
+        }
+        return length;
+    }
+
+    /**
+     * @return the smallest key greater than every key starting with the first {@code length} bytes of {@code key},
+     * or null if there is none
+     */
+    private static byte[] successor(byte[] key, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (key[i] != (byte) 0xff) {
+                byte[] result = Arrays.copyOf(key, i + 1);
+                result[i]++;
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private int decodeNext(int ordinal, int[] cursor, byte[] current) {
+        int prefix = (ordinal % BLOCK_SIZE == 0) ? 0 : readVarInt(cursor);
+        int suffix = readVarInt(cursor);
+        System.arraycopy(data, cursor[0], current, prefix, suffix);
+        cursor[0] += suffix;
+        return prefix + suffix;
+    }
+
+    private int compareBlockHead(int block, byte[] key) {
+        int[] cursor = {blockOffsets[block]};
+        int length = readVarInt(cursor);
+        return compare(data, cursor[0], length, key);
+    }
+
+    private int readVarInt(int[] cursor) {
+        int pos = cursor[0];
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos++];
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        cursor[0] = pos;
+        return result;
+    }
+
+    private static int compare(byte[] a, int offset, int length, byte[] b) {
+        int n = Math.min(length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[offset + i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - b.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        return compare(a, 0, a.length, b);
+    }
+
+    /**
+     * Sequentially decoded, unmodifiable view of the sorted paths
+     */
+    private final class PathList extends AbstractList<String> implements RandomAccess {
+
+        @Override
+        public String get(int index) {
+            return pathAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o instanceof String) && indexOf((String) o) >= 0;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return (o instanceof String) ? PathIndex.this.indexOf((String) o) : -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOf(o);
+        }
+
+        @Override
+        @Nonnull
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private final byte[] current = new byte[maxLength];
+                private final int[] cursor = {0};
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    if (next % BLOCK_SIZE == 0) {
+                        cursor[0] = blockOffsets[next / BLOCK_SIZE];
+                    }
+                    int length = decodeNext(next, cursor, current);
+                    next++;
+                    return new String(current, 0, length, StandardCharsets.UTF_8);
+                }
+            };
+        }
+    }
+
+    /**
+     * Unmodifiable view of the paths that have a file
+     */
+    private final class LivePathList extends AbstractList<String> implements RandomAccess {
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= liveOrdinals.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + liveOrdinals.length);
+            }
+            return pathAt(liveOrdinals[index]);
+        }
+
+        @Override
+        public int size() {
+            return liveOrdinals.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            int ordinal = (o instanceof String) ? PathIndex.this.indexOf((String) o) : -1;
+            return (ordinal < 0) ? -1 : Math.max(-1, Arrays.binarySearch(liveOrdinals, ordinal));
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOf(o);
+        }
+
+        @Override
+        @Nonnull
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private final Iterator<String> all = paths.iterator();
+                private int ordinal = -1;
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < liveOrdinals.length;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= liveOrdinals.length) {
+                        throw new NoSuchElementException();
+                    }
+                    String path;
+                    do {
+                        path = all.next();
+                        ordinal++;
+                    } while (ordinal < liveOrdinals[next]);
+                    next++;
+                    return path;
+                }
+            };
+        }
+    }
+
+    /**
+     * Collects paths in any order. A later offset for the same path replaces the earlier one.
+     */
+    static final class Builder {
+
+        private final Map<String, Long> offsets = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Register a path that may not have a file (yet)
+         */
+        Builder add(String path) {
+            offsets.putIfAbsent(path, NO_OFFSET);
+            return this;
+        }
+
+        Builder put(String path, long offset) {
+            offsets.put(path, offset);
+            return this;
+        }
+
+        PathIndex build() {
+            int size = offsets.size();
+            byte[][] keys = new byte[size][];
+            long[] values = new long[size];
+            Integer[] order = new Integer[size];
+            int i = 0;
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                keys[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                values[i] = entry.getValue();
+                order[i] = i;
+                i++;
+            }
+            Arrays.sort(order, (a, b) -> compare(keys[a], keys[b]));
+
+            ByteArrayBuilder out = new ByteArrayBuilder();
+            int[] blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+            long[] sortedOffsets = new long[size];
+            int maxLength = 0;
+            byte[] previous = null;
+            for (int n = 0; n < size; n++) {
+                byte[] key = keys[order[n]];
+                sortedOffsets[n] = values[order[n]];
+                maxLength = Math.max(maxLength, key.length);
+                if (n % BLOCK_SIZE == 0) {
+                    blockOffsets[n / BLOCK_SIZE] = out.size();
+                    out.writeVarInt(key.length);
+                    out.write(key, 0, key.length);
+                } else {
+                    int prefix = sharedPrefix(previous, key);
+                    out.writeVarInt(prefix);
+                    out.writeVarInt(key.length - prefix);
+                    out.write(key, prefix, key.length - prefix);
+                }
+                previous = key;
+            }
+            return new PathIndex(size, out.toByteArray(), blockOffsets, sortedOffsets, maxLength);
+        }
+
+        private static int sharedPrefix(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            int i = 0;
+            while (i < n && a[i] == b[i]) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    private static final class ByteArrayBuilder {
+
+        private byte[] buffer = new byte[256];
+        private int count;
+
+        int size() {
+            return count;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                ensure(1);
+                buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            ensure(1);
+            buffer[count++] = (byte) value;
+        }
+
+        void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, count);
+        }
+
+        private void ensure(int extra) {
+            if (count + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+            }
+        }
+    }
+}
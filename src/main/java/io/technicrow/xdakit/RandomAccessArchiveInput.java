@@ -0,0 +1,103 @@
+package io.technicrow.xdakit;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ArchiveInput} reading through a read-only {@link RandomAccessFile}.
+ * Positional reads go through the file channel and do not move the file pointer.
+ * <p>
+ * Interrupting a thread blocked on the channel closes it for every thread. The interrupted read still fails, but the
+ * file is then reopened, so one interrupted caller does not leave the whole document unusable. The length is taken
+ * once at open, so it never touches a channel that may have been closed that way.
+ */
+final class RandomAccessArchiveInput extends ArchiveInput {
+
+    private final File path;
+    private final long length;
+    private volatile RandomAccessFile file;
+    private volatile boolean closed;
+
+    RandomAccessArchiveInput(File path) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(path, "r");
+        try {
+            this.length = file.length();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    long length() {
+        return length;
+    }
+
+    @Override
+    int read(ByteBuffer dst, long position) throws IOException {
+        while (true) {
+            RandomAccessFile current = file;
+            try {
+                return current.getChannel().read(dst, position);
+            } catch (ClosedChannelException e) {
+                recover(current, e);
+            }
+        }
+    }
+
+    @Override
+    InputStream openRegion(long position, long length) throws IOException {
+        if (position < 0 || length < 0 || position + length > this.length) {
+            throw new EOFException("Region out of range: " + position + "+" + length);
+        }
+        return new RegionInputStream(this, position, length);
+    }
+
+    @Override
+    void transferTo(long position, long length, WritableByteChannel target) throws IOException {
+        RandomAccessFile current = file;
+        try {
+            transfer(current.getChannel(), position, length, target);
+        } catch (ClosedChannelException e) {
+            // Part of the region may have been written already, so the transfer is never retried
+            recover(current, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        file.close();
+    }
+
+    /**
+     * Reopen the file if {@code broken} was closed by an interrupt rather than by {@link #close()}.
+     * Returns to retry only when the calling thread is not the one interrupted.
+     */
+    private void recover(RandomAccessFile broken, ClosedChannelException e) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw e;
+            }
+            if (file == broken) {
+                if (broken.getChannel().isOpen()) {
+                    throw e;
+                }
+                broken.close();
+                file = new RandomAccessFile(path, "r");
+            }
+        }
+        if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+    }
+}
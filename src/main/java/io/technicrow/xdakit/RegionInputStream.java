@@ -0,0 +1,108 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded window over a region of an {@link ArchiveInput}, pulled on demand through positional reads.
+ * Only a small fixed buffer is held, however large the region is.
+ */
+final class RegionInputStream extends InputStream {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final ArchiveInput input;
+    private final long end;
+    private final ByteBuffer buffer;
+    private long position;
+
+    RegionInputStream(ArchiveInput input, long position, long length) {
+        this(input, position, length, DEFAULT_BUFFER_SIZE);
+    }
+
+    RegionInputStream(ArchiveInput input, long position, long length, int bufferSize) {
+        this.input = input;
+        this.position = position;
+        this.end = position + length;
+        this.buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(bufferSize, length)));
+        this.buffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !refill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (buffer.hasRemaining()) {
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+        long remaining = end - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (len >= buffer.capacity()) {
+            // Large reads bypass the buffer
+            int n = readAt(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)));
+            position += n;
+            return n;
+        }
+        if (!refill()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        long buffered = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + (int) buffered);
+        long skipped = Math.min(n - buffered, end - position);
+        position += skipped;
+        return buffered + skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + (end - position));
+    }
+
+    private boolean refill() throws IOException {
+        long remaining = end - position;
+        if (remaining <= 0) {
+            return false;
+        }
+        buffer.clear();
+        if (remaining < buffer.capacity()) {
+            buffer.limit((int) remaining);
+        }
+        position += readAt(buffer);
+        buffer.flip();
+        return true;
+    }
+
+    private int readAt(ByteBuffer dst) throws IOException {
+        int n = input.read(dst, position);
+        if (n <= 0) {
+            throw new EOFException("Unexpected end of file at position " + position);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,143 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persistent copy of the resolved path table, stored next to the archive as {@code <archive>.idx}.
+ * It is only trusted while the fingerprint (archive length, modification time, raw header bytes and a digest of the
+ * entry chain) still matches.
+ */
+final class SidecarIndex {
+
+    static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x58444149;
+    private static final int VERSION = 2;
+
+    private final PathIndex pathIndex;
+    private final FileRecord[] records;
+
+    private SidecarIndex(PathIndex pathIndex, FileRecord[] records) {
+        this.pathIndex = pathIndex;
+        this.records = records;
+    }
+
+    static File indexFileOf(File archive) {
+        return new File(archive.getPath() + SUFFIX);
+    }
+
+    PathIndex getPathIndex() {
+        return pathIndex;
+    }
+
+    /**
+     * @return the file records, by {@link PathIndex} ordinal
+     */
+    FileRecord[] getRecords() {
+        return records;
+    }
+
+    /**
+     * Load the index if it exists and was written for the same archive contents
+     *
+     * @return the index, or {@code null} if it is missing, stale or damaged
+     */
+    @Nullable
+    static SidecarIndex read(File indexFile, byte[] fingerprint) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            byte[] storedFingerprint = new byte[in.readUnsignedShort()];
+            in.readFully(storedFingerprint);
+            if (!Arrays.equals(storedFingerprint, fingerprint)) {
+                return null;
+            }
+            int count = in.readInt();
+            PathIndex.Builder builder = PathIndex.builder();
+            Map<String, FileRecord> records = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                builder.add(path);
+                if (in.readBoolean()) {
+                    long offset = in.readLong();
+                    long dataOffset = in.readLong();
+                    long length = in.readLong();
+                    byte checkSum = in.readByte();
+                    byte[] ecs = new byte[in.readUnsignedByte()];
+                    in.readFully(ecs);
+                    builder.put(path, offset);
+                    records.put(path, new FileRecord(dataOffset, length, ecs, checkSum));
+                }
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                return null;
+            }
+            PathIndex pathIndex = builder.build();
+            FileRecord[] recordArray = new FileRecord[pathIndex.size()];
+            for (Map.Entry<String, FileRecord> entry : records.entrySet()) {
+                recordArray[pathIndex.indexOf(entry.getKey())] = entry.getValue();
+            }
+            return new SidecarIndex(pathIndex, recordArray);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the index atomically, replacing any previous one
+     */
+    static void write(File indexFile, byte[] fingerprint, PathIndex pathIndex, FileRecord[] records) throws IOException {
+        File temp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)), crc))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeShort(fingerprint.length);
+                out.write(fingerprint);
+                out.writeInt(pathIndex.size());
+                int ordinal = 0;
+                for (String path : pathIndex.paths()) {
+                    long offset = pathIndex.offsetAt(ordinal);
+                    FileRecord record = records[ordinal++];
+                    boolean hasRecord = (offset != PathIndex.NO_OFFSET) && (record != null);
+                    out.writeUTF(path);
+                    out.writeBoolean(hasRecord);
+                    if (hasRecord) {
+                        out.writeLong(offset);
+                        out.writeLong(record.getDataOffset());
+                        out.writeLong(record.getLength());
+                        out.writeByte(record.getCheckSum());
+                        byte[] ecs = record.getEcs();
+                        out.writeByte(ecs.length);
+                        out.write(ecs);
+                    }
+                }
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+            try {
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.technicrow.xdakit;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ArchiveInput} over the positional reads of an {@link ArchiveSource}
+ */
+final class SourceArchiveInput extends ArchiveInput {
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final ArchiveSource source;
+
+    SourceArchiveInput(ArchiveSource source) {
+        this.source = source;
+    }
+
+    @Override
+    long length() throws IOException {
+        return source.size();
+    }
+
+    @Override
+    int read(ByteBuffer dst, long position) throws IOException {
+        return source.read(dst, position);
+    }
+
+    @Override
+    InputStream openRegion(long position, long length) throws IOException {
+        if (position < 0 || length < 0 || position + length > source.size()) {
+            throw new EOFException("Region out of range: " + position + "+" + length);
+        }
+        return new RegionInputStream(this, position, length);
+    }
+
+    @Override
+    void transferTo(long position, long length, WritableByteChannel target) throws IOException {
+        if (source instanceof ArchiveSources.RangeSource) {
+            ((ArchiveSources.RangeSource) source).transferTo(position, length, target);
+            return;
+        }
+        FileChannel channel = (source instanceof ArchiveSources.ChannelSource)
+                ? ((ArchiveSources.ChannelSource) source).fileChannel() : null;
+        if (channel != null) {
+            transfer(channel, position, length, target);
+            return;
+        }
+        if (position < 0 || length < 0 || position + length > source.size()) {
+            throw new EOFException("Region out of range: " + position + "+" + length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(TRANSFER_BUFFER_SIZE, length)));
+        long done = 0;
+        while (done < length) {
+            buffer.clear();
+            if (buffer.remaining() > length - done) {
+                buffer.limit((int) (length - done));
+            }
+            int n = fill(buffer, position + done);
+            if (n == 0) {
+                throw new EOFException();
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            done += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
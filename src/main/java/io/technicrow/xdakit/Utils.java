@@ -46,30 +46,33 @@ public class Utils {
     }
 
     public static long readLong(InputStream in) throws IOException {
-        byte[] b = new byte[8];
-        if (in.read(b) != 8) {
-            throw new IOException("Cannot read long from input stream");
-        }
-        return ((long) b[7] << 56) + ((long) b[6] << 48) + ((long) b[5] << 40)
-                + ((long) b[4] << 32) + ((long) b[3] << 24) + ((long) b[2] << 16)
-                + ((long) b[1] << 8) + b[0];
+        long low = readInt(in, "Cannot read long from input stream") & 0xffffffffL;
+        long high = readInt(in, "Cannot read long from input stream");
+        return (high << 32) | low;
     }
 
     public static int readInt(InputStream in) throws IOException {
-        byte[] b = new byte[4];
-        if (in.read(b) != 4) {
-            throw new IOException("Cannot read int from input stream");
-        }
-        return ((b[3] << 24) & 0xff000000) + ((b[2] << 16) & 0x00ff0000)
-                + ((b[1] << 8) & 0x0000ff00) + (b[0] & 0x000000ff);
+        return readInt(in, "Cannot read int from input stream");
     }
 
     public static short readShort(InputStream in) throws IOException {
-        byte[] b = new byte[2];
-        if (in.read(b) != 2) {
+        int b0 = in.read();
+        int b1 = in.read();
+        if ((b0 | b1) < 0) {
             throw new IOException("Cannot read short from input stream");
         }
-        return (short) ((b[1] << 8) + (b[0] & 0xff));
+        return (short) ((b1 << 8) | b0);
+    }
+
+    private static int readInt(InputStream in, String message) throws IOException {
+        int b0 = in.read();
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        if ((b0 | b1 | b2 | b3) < 0) {
+            throw new IOException(message);
+        }
+        return (b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
     }
 
     public static String readString(InputStream source) throws IOException {
@@ -0,0 +1,109 @@
+package io.technicrow.xdakit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Outcome of {@link XDADocument#validate(boolean)}
+ */
+public final class ValidationReport {
+
+    private final List<Problem> problems;
+    private final int entriesChecked;
+    private final long filesChecked;
+    private final boolean complete;
+
+    ValidationReport(List<Problem> problems, int entriesChecked, long filesChecked, boolean complete) {
+        List<Problem> sorted = new ArrayList<>(problems);
+        sorted.sort(Comparator.comparingLong(Problem::getOffset));
+        this.problems = Collections.unmodifiableList(sorted);
+        this.entriesChecked = entriesChecked;
+        this.filesChecked = filesChecked;
+        this.complete = complete;
+    }
+
+    public boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * @return the problems found, by offset
+     */
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    public int getEntriesChecked() {
+        return entriesChecked;
+    }
+
+    /**
+     * @return the number of distinct file records checked, including superseded ones
+     */
+    public long getFilesChecked() {
+        return filesChecked;
+    }
+
+    /**
+     * @return false if validation stopped at the first problem before checking everything
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("valid", isValid())
+                .append("entriesChecked", entriesChecked)
+                .append("filesChecked", filesChecked)
+                .append("complete", complete)
+                .append("problems", problems)
+                .toString();
+    }
+
+    /**
+     * A single defect, located by file offset
+     */
+    public static final class Problem {
+
+        private final long offset;
+        private final String path;
+        private final String message;
+
+        Problem(long offset, @Nullable String path, String message) {
+            this.offset = offset;
+            this.path = path;
+            this.message = message;
+        }
+
+        /**
+         * @return the offset of the broken structure, or -1 if it cannot be located
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the path of the affected file, if the problem concerns one
+         */
+        @Nullable
+        public String getPath() {
+            return path;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + offset + ((path != null) ? " [" + path + "]" : "") + ": " + message;
+        }
+    }
+}
@@ -5,7 +5,9 @@ import io.technicrow.xdakit.model.FileStream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface XDA extends AutoCloseable {
 
@@ -20,4 +22,58 @@ public interface XDA extends AutoCloseable {
     int getMajorVersion();
 
     int getMinorVersion();
+
+    /**
+     * {@link #getFile(String)} on the default executor: virtual threads on Java 21 and later, otherwise a shared
+     * pool of daemon threads
+     */
+    @Nonnull
+    default CompletableFuture<FileStream> getFileAsync(@Nonnull String path) {
+        return getFileAsync(path, AsyncExecutors.defaultExecutor());
+    }
+
+    /**
+     * {@link #getFile(String)} on {@code executor}. A missing file or a read error completes the future
+     * exceptionally with the exception {@code getFile} throws.
+     */
+    @Nonnull
+    default CompletableFuture<FileStream> getFileAsync(@Nonnull String path, @Nonnull Executor executor) {
+        CompletableFuture<FileStream> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(getFile(path));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * {@link #getFilesAsync(Collection, Executor)} on the default executor
+     */
+    @Nonnull
+    default CompletableFuture<Map<String, FileStream>> getFilesAsync(@Nonnull Collection<String> paths) {
+        return getFilesAsync(paths, AsyncExecutors.defaultExecutor());
+    }
+
+    /**
+     * Get several files at once, each on its own task on {@code executor}.
+     * The map keeps the order of {@code paths}. If any file fails, the future completes exceptionally with one of the
+     * failures and the streams of the other files are closed.
+     */
+    @Nonnull
+    default CompletableFuture<Map<String, FileStream>> getFilesAsync(@Nonnull Collection<String> paths,
+                                                                     @Nonnull Executor executor) {
+        List<String> ordered = new ArrayList<>(new LinkedHashSet<>(paths));
+        List<CompletableFuture<FileStream>> files = new ArrayList<>(ordered.size());
+        for (String path : ordered) {
+            files.add(getFileAsync(path, executor));
+        }
+        return AsyncExecutors.collect(ordered, files);
+    }
 }
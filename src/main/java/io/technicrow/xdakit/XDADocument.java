@@ -1,14 +1,31 @@
 package io.technicrow.xdakit;
 
 import io.technicrow.xdakit.constant.Operator;
+import io.technicrow.xdakit.constant.XDAOpenOption;
 import io.technicrow.xdakit.model.*;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 /**
  * The XDA Document
@@ -19,73 +36,611 @@ public class XDADocument implements XDA {
     private static final byte[] ENTRY_CLASS_TYPE = {'C', '.', 'E', 'n'};
     private static final byte[] BIT_STREAM_CLASS_TYPE = {'C', '.', 'B', 'S'};
     private static final int CHECKSUM_LENGTH = 16;
-    private static final int NAME_VALUE_LENGTH = 16;
     private static final byte NAME_TABLE_COMPRESS_MASK = 0x01;
     private static final byte ITEM_LIST_COMPRESS_MASK = 0x02;
-    private final RandomAccessFile file;
-    private final List<String> paths = new LinkedList<>();
-    private final Map<String, Long> fileToOffsetMap = new HashMap<>();
-    private XDAHeader header;
-    private List<XDAEntry> entries;
+    private static final long IGNORED_ITEM = -2L;
+    private static final long MAX_INFLATE_INDEX_BYTES = 32L << 20;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Idle direct buffers for {@link #transferFile}, bounded so that many short-lived threads do not each pin one
+     */
+    private static final BlockingQueue<ByteBuffer> TRANSFER_BUFFERS =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    private final ArchiveInput file;
+    private final XDAHeader header;
+    private final File archiveFile;
+    private final File indexFile;
+    private final Map<String, Long> lazyLookups = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Long, InflateIndex> inflateIndexes = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, CompletableFuture<InflateIndex>> inflateIndexBuilds = new HashMap<>();
+    private long inflateIndexBytes;
+    private long maxInflateIndexBytes = MAX_INFLATE_INDEX_BYTES;
+    private final Map<Long, ByteBuffer> nestedArchives = new ConcurrentHashMap<>();
+    private volatile List<XDAEntry> entries;
+    private volatile AtomicReferenceArray<LoadedEntry> loadedEntries;
+    private volatile PathIndex pathIndex;
+    private volatile FileRecord[] indexedRecords;
+    private volatile PathHistory pathHistory;
+    private volatile FileCache fileCache;
+    private volatile boolean closed;
 
-    private XDADocument(RandomAccessFile file) throws IOException, XDAException {
+    private XDADocument(ArchiveInput file, Set<XDAOpenOption> options, File archiveFile, File indexFile)
+            throws IOException, XDAException {
         this.file = file;
+        this.archiveFile = archiveFile;
+        this.indexFile = indexFile;
         try {
-            doParse();
+            this.header = parseHeader();
+            SidecarIndex index = (indexFile == null) ? null : SidecarIndex.read(indexFile, fingerprint());
+            if (index != null) {
+                this.indexedRecords = index.getRecords();
+                this.pathIndex = index.getPathIndex();
+            } else {
+                entries();
+                if (!options.contains(XDAOpenOption.LAZY)) {
+                    buildPathIndex();
+                }
+            }
         } catch (IOException | XDAException e) {
             file.close();
             throw e;
         }
     }
 
-    public static XDADocument open(@Nonnull String filePath) throws IOException, XDAException {
+    public static XDADocument open(@Nonnull String filePath, XDAOpenOption... options) throws IOException, XDAException {
         File file = new File(filePath);
-        return open(file);
+        return open(file, options);
     }
 
-    public static XDADocument open(@Nonnull File file) throws IOException, XDAException {
+    public static XDADocument open(@Nonnull File file, XDAOpenOption... options) throws IOException, XDAException {
         if (!file.exists()) {
             throw new FileNotFoundException(file.getAbsolutePath());
         }
         if (file.isDirectory()) {
             throw new FileNotFoundException("Designated path is a directory: " + file.getAbsolutePath());
         }
-        return new XDADocument(new RandomAccessFile(file, "rw"));
+        Set<XDAOpenOption> openOptions = EnumSet.noneOf(XDAOpenOption.class);
+        Collections.addAll(openOptions, options);
+        ArchiveInput input;
+        if (openOptions.contains(XDAOpenOption.MEMORY_MAPPED)) {
+            input = MappedArchiveInput.open(file);
+        } else {
+            input = new RandomAccessArchiveInput(file);
+        }
+        File indexFile = openOptions.contains(XDAOpenOption.SIDECAR_INDEX) ? SidecarIndex.indexFileOf(file) : null;
+        return new XDADocument(input, openOptions, file, indexFile);
     }
 
+    /**
+     * Open an archive from any {@link ArchiveSource}, which is closed with the document.
+     * Buffer and array sources are parsed in place, and stored files are returned as views of them.
+     * {@link XDAOpenOption#MEMORY_MAPPED} and {@link XDAOpenOption#SIDECAR_INDEX} need a file and are ignored.
+     */
+    public static XDADocument open(@Nonnull ArchiveSource source, XDAOpenOption... options) throws IOException, XDAException {
+        Set<XDAOpenOption> openOptions = EnumSet.noneOf(XDAOpenOption.class);
+        Collections.addAll(openOptions, options);
+        ArchiveInput input;
+        try {
+            input = ArchiveSources.input(source);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+        return new XDADocument(input, openOptions, null, null);
+    }
+
+    /**
+     * Check the structure of the whole archive and decode every file, stopping at the first problem
+     *
+     * @see #validate(boolean, boolean, ForkJoinPool)
+     */
     @Override
     public boolean validate() {
-        return false;
+        return validate(true).isValid();
+    }
+
+    /**
+     * Validate on the common pool, without verifying checksums
+     *
+     * @see #validate(boolean, boolean, ForkJoinPool)
+     */
+    public ValidationReport validate(boolean failFast) {
+        return validate(failFast, false);
+    }
+
+    /**
+     * Validate on the common pool
+     *
+     * @see #validate(boolean, boolean, ForkJoinPool)
+     */
+    public ValidationReport validate(boolean failFast, boolean verifyChecksums) {
+        return validate(failFast, verifyChecksums, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Validate on {@code pool}, without verifying checksums
+     *
+     * @see #validate(boolean, boolean, ForkJoinPool)
+     */
+    public ValidationReport validate(boolean failFast, @Nonnull ForkJoinPool pool) {
+        return validate(failFast, false, pool);
     }
 
+    /**
+     * Check the entry chain, every entry's tables, and every file record any item points at, including superseded
+     * ones: record layout, bounds and a full decode of the ECS chain.
+     * Entries and file bodies are checked in parallel on {@code pool}.
+     * <p>
+     * The format does not say how checksums are computed, so they are only verified on request, against the
+     * convention of {@link XDADocumentWriter}; archives from other producers would fail that check.
+     *
+     * @param failFast        stop at the first problem instead of collecting all of them
+     * @param verifyChecksums also check the non-zero checksums, as written by {@link XDADocumentWriter}
+     */
+    public ValidationReport validate(boolean failFast, boolean verifyChecksums, @Nonnull ForkJoinPool pool) {
+        return new XDAValidator(this, failFast, verifyChecksums).validate(pool);
+    }
+
+    /**
+     * List the live files in the archive, sorted by path. Deleted files are left out.
+     * A document opened with {@link XDAOpenOption#LAZY} inflates every remaining entry on the first call.
+     *
+     * @throws UncheckedIOException if a pending entry cannot be read
+     * @throws IllegalStateException if a pending entry is malformed
+     */
     @Override
     @Nonnull
     public List<String> listAllFiles() {
-        return Collections.unmodifiableList(paths);
+        try {
+            return buildPathIndex().livePaths();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (XDAException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
     }
 
+    /**
+     * List the files whose path starts with {@code prefix}, in the order of {@link #listAllFiles()}.
+     * The sorted path index is searched for the first and last match, so the cost follows the number of matches.
+     */
+    @Nonnull
+    public List<String> list(@Nonnull String prefix) throws IOException, XDAException {
+        return buildPathIndex().livePathsWithPrefix(prefix);
+    }
+
+    /**
+     * List the names directly under {@code directory}, with or without a trailing {@code /}; an empty string lists
+     * the top level. Names of subdirectories end with {@code /}. Each subdirectory costs one lookup in the path
+     * index, however many files it holds.
+     */
+    @Nonnull
+    public List<String> listDirectory(@Nonnull String directory) throws IOException, XDAException {
+        if (!directory.isEmpty() && !directory.endsWith("/")) {
+            directory += "/";
+        }
+        return buildPathIndex().liveChildren(directory);
+    }
+
+    /**
+     * List the files whose whole path matches a glob pattern, with the syntax of
+     * {@link java.nio.file.FileSystem#getPathMatcher(String)}, in the order of {@link #listAllFiles()}.
+     * Literal names are looked up and wildcard names only visit their directory, so {@code Pages/Page_?/Content.xml}
+     * never looks at the resources; a name containing {@code **} scans the files under the directory reached so far.
+     *
+     * @throws java.util.regex.PatternSyntaxException if the pattern is invalid
+     */
+    @Nonnull
+    public List<String> glob(@Nonnull String pattern) throws IOException, XDAException {
+        return Globs.select(buildPathIndex(), pattern);
+    }
+
+    /**
+     * Get a file from the archive.
+     * Only positional reads are used, so one document can serve many threads at once.
+     * With a {@link FileCache} set, small files are decoded once and later calls read them from memory.
+     */
     @Override
     public FileStream getFile(@Nonnull String filePath) throws IOException, XDAException {
-        if (!fileToOffsetMap.containsKey(filePath)) {
+        FileCache cache = fileCache;
+        if (cache != null) {
+            FileCache.CachedFile cached = cache.get(this, filePath);
+            if (cached != null) {
+                return newFileStream(filePath, cached.getRecord(), new ByteArrayInputStream(cached.getData()));
+            }
+        }
+        FileRecord record = findFileRecord(filePath);
+        if (record == null) {
+            throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", filePath));
+        }
+        if (cache != null && record.getLength() <= cache.getMaxFileBytes()) {
+            byte[] data = readAtMost(readFileData(record), cache.getMaxFileBytes());
+            if (data != null) {
+                cachePut(cache, filePath, new FileCache.CachedFile(record, data));
+                return newFileStream(filePath, record, new ByteArrayInputStream(data));
+            }
+        }
+        return newFileStream(filePath, record, readFileData(record));
+    }
+
+    /**
+     * Get the decoded contents of a file as a read-only buffer.
+     * In a {@link XDAOpenOption#MEMORY_MAPPED} document, or one opened from a buffer or array source, a stored file,
+     * i.e. one with no ECS codec, is returned as a view without any copy; such a view must not be used once the
+     * document is closed.
+     * Other files are read into memory and decoded by {@link EcsCodec#decode(ByteBuffer)} of each codec in the chain.
+     * A file already in the {@link FileCache} is served from it, but this method neither fills the cache nor counts
+     * in its statistics.
+     */
+    @Nonnull
+    public ByteBuffer getFileBuffer(@Nonnull String filePath) throws IOException, XDAException {
+        FileCache cache = fileCache;
+        if (cache != null) {
+            FileCache.CachedFile cached = cache.peek(this, filePath);
+            if (cached != null) {
+                return ByteBuffer.wrap(cached.getData()).asReadOnlyBuffer();
+            }
+        }
+        FileRecord record = findFileRecord(filePath);
+        if (record == null) {
+            throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", filePath));
+        }
+        if (record.getLength() > Integer.MAX_VALUE - 8) {
+            throw new IOException("File is too large for a buffer: " + filePath);
+        }
+        int length = (int) record.getLength();
+        ByteBuffer data = file.slice(record.getDataOffset(), length);
+        if (data == null) {
+            data = ByteBuffer.allocate(length);
+            if (file.fill(data, record.getDataOffset()) < length) {
+                throw new EOFException("File body is truncated: " + filePath);
+            }
+            data.flip();
+        }
+        byte[] ecs = record.getEcs();
+        for (int i = ecs.length - 1; i >= 0; i--) {
+            if (ecs[i] != 0) {
+                data = EcsCodecs.require(ecs[i]).decode(data);
+            }
+        }
+        return data.isReadOnly() ? data : data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Write the decoded contents of a file to {@code target}, which must be in blocking mode.
+     * Stored files are handed to {@link java.nio.channels.FileChannel#transferTo}, so the kernel can send them
+     * without copying them through the heap. Other files are decoded through a direct buffer taken from a small shared pool.
+     * Like {@link #getFileBuffer(String)}, this uses but never fills the {@link FileCache}.
+     *
+     * @return the number of bytes written
+     */
+    public long transferFile(@Nonnull String filePath, @Nonnull WritableByteChannel target) throws IOException, XDAException {
+        FileCache cache = fileCache;
+        if (cache != null) {
+            FileCache.CachedFile cached = cache.peek(this, filePath);
+            if (cached != null) {
+                return writeFully(ByteBuffer.wrap(cached.getData()), target);
+            }
+        }
+        FileRecord record = findFileRecord(filePath);
+        if (record == null) {
+            throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", filePath));
+        }
+        if (EcsCodecs.isStored(record.getEcs())) {
+            file.transferTo(record.getDataOffset(), record.getLength(), target);
+            return record.getLength();
+        }
+        ByteBuffer buffer = TRANSFER_BUFFERS.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+        }
+        long total = 0;
+        try (ReadableByteChannel data = Channels.newChannel(readFileData(record))) {
+            buffer.clear();
+            while (data.read(buffer) != -1) {
+                buffer.flip();
+                total += writeFully(buffer, target);
+                buffer.clear();
+            }
+        } finally {
+            // A buffer the pool has no room for is left to the garbage collector
+            TRANSFER_BUFFERS.offer(buffer);
+        }
+        return total;
+    }
+
+    /**
+     * Extract every live file with default options
+     *
+     * @see #extractAll(Path, ExtractOptions)
+     */
+    public int extractAll(@Nonnull Path targetDir) throws IOException, XDAException {
+        return extractAll(targetDir, ExtractOptions.defaults());
+    }
+
+    /**
+     * Write every live file under {@code targetDir}, creating directories as needed.
+     * Bodies are read in the order they are stored and decoded and written on a pool, with a bound on the bytes
+     * read ahead, so extraction is limited by the disks rather than by a single inflating thread.
+     * Paths that would resolve outside {@code targetDir} are rejected before anything is written.
+     *
+     * @return the number of files written
+     */
+    public int extractAll(@Nonnull Path targetDir, @Nonnull ExtractOptions options) throws IOException, XDAException {
+        return new XDAExtractor(this, targetDir, options).extract();
+    }
+
+    /**
+     * Publish every live file, decoded in memory, in the order the bodies are stored.
+     * Reading and decoding run ahead of the subscriber only as far as its demand and the scan's bounds allow.
+     */
+    @Nonnull
+    public FileScan scan() {
+        return new FileScan(this);
+    }
+
+    /**
+     * Open an archive that is itself a file of this one, without extracting it.
+     * A stored member is read in place, as a view in a mapped or buffer-backed document and through positional reads
+     * otherwise. A member with ECS codecs is decoded into memory on the first call and the buffer is shared by later
+     * calls until this document is closed. The nested document must not be used once this one is closed.
+     */
+    @Nonnull
+    public XDADocument openNested(@Nonnull String filePath, XDAOpenOption... options) throws IOException, XDAException {
+        FileRecord record = findFileRecord(filePath);
+        if (record == null) {
+            throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", filePath));
+        }
+        ArchiveSource source;
+        if (EcsCodecs.isStored(record.getEcs())) {
+            ByteBuffer view = (record.getLength() <= Integer.MAX_VALUE)
+                    ? file.slice(record.getDataOffset(), (int) record.getLength()) : null;
+            source = (view != null) ? ArchiveSource.of(view)
+                    : new ArchiveSources.RangeSource(file, record.getDataOffset(), record.getLength());
+        } else {
+            ByteBuffer data = nestedArchives.get(record.getDataOffset());
+            if (data == null) {
+                data = getFileBuffer(filePath);
+                ByteBuffer existing = nestedArchives.putIfAbsent(record.getDataOffset(), data);
+                if (existing != null) {
+                    data = existing;
+                }
+            }
+            source = ArchiveSource.of(data);
+        }
+        return open(source, options);
+    }
+
+    /**
+     * Open a read-only seekable channel over the decoded contents of a file.
+     * Stored files are read positionally; files encoded with deflate alone seek through a checkpoint index built on
+     * the first seek beyond its first megabyte, and other ECS chains are decoded again from the start on a backward
+     * seek.
+     * {@link SeekableByteChannel#size()} of an encoded file decodes the whole stream: once per channel for other
+     * chains, and for deflate whenever the checkpoint index is not (or no longer) held by this document.
+     */
+    @Nonnull
+    public SeekableByteChannel openFileChannel(@Nonnull String filePath) throws IOException, XDAException {
+        FileRecord record = findFileRecord(filePath);
+        if (record == null) {
             throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", filePath));
         }
-        long offset = fileToOffsetMap.get(filePath);
-        file.seek(offset);
-        byte checkSum = file.readByte();
-        long length = Utils.readByBitsParam(file, header.getBitsParam());
-        ByteBuffer ecsBuffer = ByteBuffer.allocate(8);
-        byte b;
-        int ecsLength = 0;
-        while (((b = file.readByte()) != (byte) 0xff) && ecsLength < 8) {
-            if (b == 0x00) {
-                throw new XDAException("Invalid ECS value: 0x00");
+        return XDAFileChannel.open(this, record);
+    }
+
+    /**
+     * Cache decoded files in {@code fileCache}, or stop caching if it is null.
+     * Files this document put in a previous cache are dropped from it.
+     */
+    public void setFileCache(@Nullable FileCache fileCache) {
+        FileCache previous = this.fileCache;
+        this.fileCache = fileCache;
+        if (previous != null && previous != fileCache) {
+            previous.invalidate(this);
+        }
+    }
+
+    /**
+     * Cache a file decoded while {@link #close()} or {@link #setFileCache(FileCache)} may have run.
+     * Both change their flag before dropping this document's files, so whichever comes last removes the entry.
+     */
+    private void cachePut(FileCache cache, String filePath, FileCache.CachedFile cached) {
+        cache.put(this, filePath, cached);
+        if (closed || fileCache != cache) {
+            cache.invalidate(this);
+        }
+    }
+
+    /**
+     * @return the number of entries in the chain
+     */
+    public int getEntryCount() throws IOException, XDAException {
+        return entries().size();
+    }
+
+    /**
+     * View the archive as it was once the given entry had been written, i.e. ignoring every later entry.
+     * The first call resolves the version history of all paths; after that a view costs nothing to create.
+     * The view shares this document and must not be used once it is closed.
+     *
+     * @param entryIndex 0 for the first entry, up to {@link #getEntryCount()} - 1
+     */
+    public XDA asOf(int entryIndex) throws IOException, XDAException {
+        int entryCount = getEntryCount();
+        if (entryIndex < 0 || entryIndex >= entryCount) {
+            throw new IndexOutOfBoundsException("Entry: " + entryIndex + ", Entries: " + entryCount);
+        }
+        return new XDASnapshot(this, buildPathIndex(), buildPathHistory(), entryIndex);
+    }
+
+    /**
+     * Copy the live files into a new single-entry archive at {@code output}, keeping this archive's bitsParam and
+     * compressing the name table and item list. See {@link #compactTo(File, XDADocumentWriter.Builder)}.
+     */
+    public void compactTo(@Nonnull File output) throws IOException, XDAException {
+        compactTo(output, XDADocumentWriter.builder()
+                .bitsParam(header.getBitsParam())
+                .compressNameTable(true)
+                .compressItemList(true));
+    }
+
+    /**
+     * Copy the live files into a new single-entry archive at {@code output}.
+     * Bodies are copied as stored, without being decoded and encoded again, and laid out in path order, so
+     * superseded and deleted bodies are dropped and extracting everything becomes one forward scan.
+     *
+     * @throws IllegalArgumentException if {@code output} is the file this archive was opened from
+     */
+    public void compactTo(@Nonnull File output, @Nonnull XDADocumentWriter.Builder options) throws IOException, XDAException {
+        // Building the writer truncates the output, which would destroy the archive being read
+        if (archiveFile != null && output.exists() && Files.isSameFile(archiveFile.toPath(), output.toPath())) {
+            throw new IllegalArgumentException("Cannot compact an archive onto itself: " + output);
+        }
+        try (XDADocumentWriter writer = options.build(output)) {
+            for (String path : listAllFiles()) {
+                writer.copyFile(this, path);
+            }
+        }
+    }
+
+    /**
+     * @return the record of a live file, or null if there is none
+     */
+    FileRecord findRecord(String path) throws IOException, XDAException {
+        return findFileRecord(path);
+    }
+
+    /**
+     * Open the body of a file as stored, without decoding its ECS chain
+     */
+    InputStream openRawData(FileRecord record) throws IOException {
+        return file.openRegion(record.getDataOffset(), record.getLength());
+    }
+
+    /**
+     * Read the body of a file as stored into memory
+     */
+    byte[] readRaw(FileRecord record) throws IOException {
+        byte[] data = new byte[Math.toIntExact(record.getLength())];
+        if (file.fill(ByteBuffer.wrap(data), record.getDataOffset()) < data.length) {
+            throw new EOFException("File body is truncated at " + record.getDataOffset());
+        }
+        return data;
+    }
+
+    int readRawAt(ByteBuffer dst, long position) throws IOException {
+        return file.read(dst, position);
+    }
+
+    boolean hasInflateIndex(FileRecord record) {
+        synchronized (inflateIndexes) {
+            return inflateIndexes.containsKey(record.getDataOffset());
+        }
+    }
+
+    /**
+     * The checkpoint index of a zlib-wrapped body, built on first use. Concurrent first calls for the same body wait
+     * for one build instead of each decoding the whole stream.
+     * Indexes are kept least recently used first while their windows total at most
+     * {@value #MAX_INFLATE_INDEX_BYTES} bytes; the most recent one is always kept.
+     */
+    InflateIndex inflateIndex(FileRecord record) throws IOException {
+        Long key = record.getDataOffset();
+        CompletableFuture<InflateIndex> build;
+        boolean owner;
+        synchronized (inflateIndexes) {
+            InflateIndex index = inflateIndexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            build = inflateIndexBuilds.get(key);
+            owner = build == null;
+            if (owner) {
+                build = new CompletableFuture<>();
+                inflateIndexBuilds.put(key, build);
+            }
+        }
+        if (!owner) {
+            return awaitInflateIndex(build);
+        }
+        InflateIndex index;
+        try {
+            // Skip the two-byte zlib header
+            index = InflateIndex.build(file.openRegion(record.getDataOffset() + 2, record.getLength() - 2),
+                    InflateIndex.DEFAULT_SPAN);
+        } catch (IOException | RuntimeException | Error e) {
+            synchronized (inflateIndexes) {
+                inflateIndexBuilds.remove(key);
+            }
+            build.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (inflateIndexes) {
+            inflateIndexBuilds.remove(key);
+            inflateIndexes.put(key, index);
+            inflateIndexBytes += index.getWindowBytes();
+            Iterator<InflateIndex> eldest = inflateIndexes.values().iterator();
+            while (inflateIndexBytes > maxInflateIndexBytes && inflateIndexes.size() > 1) {
+                inflateIndexBytes -= eldest.next().getWindowBytes();
+                eldest.remove();
+            }
+        }
+        build.complete(index);
+        return index;
+    }
+
+    private static InflateIndex awaitInflateIndex(CompletableFuture<InflateIndex> build) throws IOException {
+        try {
+            return build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an inflate index");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
-            ecsLength++;
-            ecsBuffer.put(b);
+            throw new IOException("Failed to build an inflate index", cause);
+        }
+    }
+
+    /**
+     * Lower the budget for checkpoint windows, for tests
+     */
+    void setMaxInflateIndexBytes(long maxInflateIndexBytes) {
+        synchronized (inflateIndexes) {
+            this.maxInflateIndexBytes = maxInflateIndexBytes;
         }
-        byte[] ecs = new byte[ecsLength];
-        System.arraycopy(ecsBuffer.array(), 0, ecs, 0, ecsLength);
-        return new FileStream(filePath, checkSum, length, ecs, readFileData(length, ecs));
+    }
+
+    long inflateIndexBytes() {
+        synchronized (inflateIndexes) {
+            return inflateIndexBytes;
+        }
+    }
+
+    InputStream openRawRegion(long position, long length) throws IOException {
+        return file.openRegion(position, length);
+    }
+
+    long fileLength() throws IOException {
+        return file.length();
+    }
+
+    XDAHeader header() {
+        return header;
+    }
+
+    XDAEntry loadedEntry(int index) throws IOException, XDAException {
+        return loadEntry(index).entry;
+    }
+
+    /**
+     * Read the file whose record is at {@code offset}, as resolved by a snapshot
+     */
+    FileStream getFileAt(String filePath, long offset) throws IOException, XDAException {
+        FileRecord record = readFileRecord(offset);
+        return newFileStream(filePath, record, readFileData(record));
     }
 
     @Override
@@ -100,127 +655,181 @@ public class XDADocument implements XDA {
 
     @Override
     public void close() throws IOException {
+        closed = true;
+        FileCache cache = fileCache;
+        if (cache != null) {
+            cache.invalidate(this);
+        }
+        synchronized (inflateIndexes) {
+            inflateIndexes.clear();
+            inflateIndexBuilds.clear();
+            inflateIndexBytes = 0;
+        }
+        nestedArchives.clear();
         if (this.file != null) {
             this.file.close();
         }
     }
 
-    private void doParse() throws IOException, XDAException {
-        parseHeader();
-        parseEntries();
-    }
-
-    private void parseHeader() throws IOException, XDAException {
-        file.seek(0);
-        validateRightsInfo();
-        byte majorVersion = file.readByte();
-        byte minorVersion = file.readByte();
-        int entryCount = Utils.readInt(file);
-        byte entryNameTableType = file.readByte();
+    private XDAHeader parseHeader() throws IOException, XDAException {
+        ByteBuffer buffer = ByteBuffer.allocate(RIGHTS_INFO.length + 1 + 1 + 4 + 1 + 1 + 8);
+        file.fill(buffer, 0);
+        buffer.flip();
+        LittleEndianReader reader = LittleEndianReader.of(buffer);
+        if (!readAndCompare(reader, RIGHTS_INFO)) {
+            throw new XDAException("The file has an invalid rights info. It might not be a valid xda file");
+        }
+        byte majorVersion = reader.readByte();
+        byte minorVersion = reader.readByte();
+        int entryCount = reader.readInt();
+        byte entryNameTableType = reader.readByte();
         if (entryNameTableType != 0x00) {
             throw new XDAException("Invalid entry nameTable type: " + entryNameTableType);
         }
-        byte bitsParam = file.readByte();
-        long firstEntryOffset = Utils.readByBitsParam(file, bitsParam);
-        this.header = new XDAHeader(majorVersion, minorVersion, entryCount, entryNameTableType, bitsParam, firstEntryOffset);
+        byte bitsParam = reader.readByte();
+        long firstEntryOffset = reader.readByBitsParam(bitsParam);
+        return new XDAHeader(majorVersion, minorVersion, entryCount, entryNameTableType, bitsParam, firstEntryOffset);
     }
 
-    private void parseEntries() throws XDAException, IOException {
-        List<XDAEntry> xdaEntries = new LinkedList<>();
+    private List<XDAEntry> parseEntries() throws XDAException, IOException {
+        List<XDAEntry> xdaEntries = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(getEntryHeaderLength());
+        LittleEndianReader reader = LittleEndianReader.of(buffer);
         long position = header.getFirstEntryOffset();
         for (int i = 0; i < header.getEntryCount(); ++i) {
-            XDAEntry entry = parseEntry(i, position);
+            buffer.clear();
+            file.fill(buffer, position);
+            buffer.flip();
+            XDAEntry entry = parseEntry(i, position, reader.reset(buffer));
             xdaEntries.add(entry);
             position = entry.getNext();
             if (position == 0) {
                 break;
             }
         }
-        this.entries = xdaEntries;
-        updateFileToOffsetMap();
+        return xdaEntries;
     }
 
-    private XDAEntry parseEntry(final int index, long position) throws XDAException,
+    /**
+     * Parse the fixed part of an entry. The name table and the item list are left for {@link #loadEntry(int)}.
+     */
+    private XDAEntry parseEntry(final int index, long position, LittleEndianReader reader) throws XDAException,
             IOException {
-        file.seek(position);
-        validateClassType(ENTRY_CLASS_TYPE);
-        int entryLength = Utils.readInt(file);
-        long bsOffset = Utils.readByBitsParam(file, header.getBitsParam());
-        long next = Utils.readByBitsParam(file, header.getBitsParam());
-        byte compress = file.readByte();
+        if (!readAndCompare(reader, ENTRY_CLASS_TYPE)) {
+            throw new XDAException("Class type is incorrect");
+        }
+        int entryLength = reader.readInt();
+        long bsOffset = reader.readByBitsParam(header.getBitsParam());
+        long next = reader.readByBitsParam(header.getBitsParam());
+        byte compress = reader.readByte();
         byte[] checkSum = new byte[CHECKSUM_LENGTH];
-        int actualRead = file.read(checkSum);
-        if (actualRead != CHECKSUM_LENGTH) {
-            throw new XDAException("Failed to read checkSum. Actual bytes read: " + actualRead);
-        }
-        int nameTableLength = Utils.readInt(file);
-        NameTable nameTable = parseNameTable(nameTableLength, compress);
-        int itemListLength = getItemListLength(entryLength, nameTableLength);
-        List<Item> itemList = parseItemList(itemListLength, compress, nameTable);
-        file.seek(bsOffset);
-        validateClassType(BIT_STREAM_CLASS_TYPE);
+        reader.readFully(checkSum);
+        int nameTableLength = reader.readInt();
         return new XDAEntry(index, position, entryLength, bsOffset, next, compress, checkSum,
-                nameTableLength, nameTable.getNameCount(), nameTable.getNameMappings(), itemList);
+                nameTableLength, null, null, null);
     }
 
-    private NameTable parseNameTable(int length, byte compress) throws IOException, XDAException {
-        byte[] nameTableData = new byte[length];
-        int actualRead = file.read(nameTableData);
-        if (actualRead != length) {
-            throw new XDAException("Failed to read name table. Actual bytes read: " + actualRead);
+    /**
+     * Walk the entry chain on first use. A document opened from a sidecar index may never need it.
+     */
+    List<XDAEntry> entries() throws IOException, XDAException {
+        List<XDAEntry> result = entries;
+        if (result == null) {
+            synchronized (this) {
+                result = entries;
+                if (result == null) {
+                    result = parseEntries();
+                    loadedEntries = new AtomicReferenceArray<>(result.size());
+                    entries = result;
+                }
+            }
         }
-        InputStream raw = new ByteArrayInputStream(nameTableData);
+        return result;
+    }
+
+    private LoadedEntry loadEntry(int index) throws IOException, XDAException {
+        XDAEntry stub = entries().get(index);
+        LoadedEntry loaded = loadedEntries.get(index);
+        if (loaded != null) {
+            return loaded;
+        }
+        synchronized (stub) {
+            loaded = loadedEntries.get(index);
+            if (loaded == null) {
+                loaded = parseEntryContents(stub);
+                loadedEntries.set(index, loaded);
+            }
+            return loaded;
+        }
+    }
+
+    private LoadedEntry parseEntryContents(XDAEntry stub) throws IOException, XDAException {
+        int nameTableLength = stub.getNameTableLength();
+        long nameTablePosition = stub.getPosition() + getEntryHeaderLength();
+        LittleEndianReader reader = LittleEndianReader.create();
+        NameTable nameTable = parseNameTable(nameTablePosition, nameTableLength, stub.getCompress(), reader);
+        int itemListLength = getItemListLength(stub.getEntryLength(), nameTableLength);
+        List<Item> itemList = parseItemList(nameTablePosition + nameTableLength, itemListLength, stub.getCompress(),
+                nameTable, reader);
+        validateClassType(stub.getBsOffset(), BIT_STREAM_CLASS_TYPE);
+        XDAEntry entry = new XDAEntry(stub.getIndex(), stub.getPosition(), stub.getEntryLength(), stub.getBsOffset(),
+                stub.getNext(), stub.getCompress(), stub.getCheckSum(), nameTableLength,
+                nameTable.getNameCount(), nameTable.getNameMappings(), itemList);
+        NameValueMap nameValues = new NameValueMap(nameTable.getNameCount());
+        for (NameMapping nm : nameTable.getNameMappings()) {
+            nameValues.put(nm.getNameValue(), nm.getPath());
+        }
+        return new LoadedEntry(entry, nameValues);
+    }
+
+    private NameTable parseNameTable(long position, int length, byte compress, LittleEndianReader reader)
+            throws IOException, XDAException {
+        InputStream raw = openRegion(position, length, "name table");
         InputStream source;
         if ((compress & NAME_TABLE_COMPRESS_MASK) != 0) {
-            source = new InflaterInputStream(raw);
+            source = InflaterPool.inflate(raw);
         } else {
             source = raw;
         }
 
-        try (InputStream data = new DataInputStream(source)) {
-            int nameCount = Utils.readInt(source);
+        try (InputStream data = source) {
+            reader.reset(data);
+            int nameCount = reader.readInt();
             List<NameMapping> nameTable = new ArrayList<>(nameCount);
             for (int i = 0; i < nameCount; ++i) {
-                BigInteger nameValue = Utils.readBigInteger(data, NAME_VALUE_LENGTH);
-                String path = Utils.readString(data);
+                NameValue nameValue = reader.readNameValue();
+                String path = reader.readString();
                 nameTable.add(new NameMapping(nameValue, path));
-                if (!paths.contains(path)) {
-                    paths.add(path);
-                }
             }
             return new NameTable(nameCount, nameTable);
         }
     }
 
-    private List<Item> parseItemList(int itemListLength, byte compress, NameTable nameTable) throws IOException, XDAException {
-        byte[] itemListData = new byte[itemListLength];
-        if (file.read(itemListData) < itemListLength) {
-            throw new XDAException("Failed to read item list");
-        }
-
-        InputStream raw = new ByteArrayInputStream(itemListData);
+    private List<Item> parseItemList(long position, int itemListLength, byte compress, NameTable nameTable,
+                                     LittleEndianReader reader) throws IOException, XDAException {
+        InputStream raw = openRegion(position, itemListLength, "item list");
         InputStream source;
         if ((compress & ITEM_LIST_COMPRESS_MASK) != 0) {
-            source = new InflaterInputStream(raw);
+            source = InflaterPool.inflate(raw);
         } else {
-            source = new DataInputStream(raw);
+            source = raw;
         }
-        try (DataInputStream data = new DataInputStream(source)) {
-            return doParseItemList(data, nameTable.getNameCount());
+        try (InputStream data = source) {
+            return doParseItemList(reader.reset(data), nameTable.getNameCount());
         }
     }
 
-    private List<Item> doParseItemList(DataInputStream itemListStream, int size) throws IOException {
+    private List<Item> doParseItemList(LittleEndianReader reader, int size) throws IOException {
         List<Item> itemList = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
-            Item item = parseItem(itemListStream);
+            Item item = parseItem(reader);
             itemList.add(item);
         }
         return itemList;
     }
 
-    private Item parseItem(DataInputStream source) throws IOException {
-        byte operatorAndReserved = source.readByte();
+    private Item parseItem(LittleEndianReader reader) throws IOException {
+        byte operatorAndReserved = reader.readByte();
         Operator operator = Operator.ofValue(operatorAndReserved);
         int reserved;
         if (header.getMinorVersion() == 0x00) {
@@ -228,59 +837,306 @@ public class XDADocument implements XDA {
         } else {
             reserved = operatorAndReserved & 0xf0;
         }
-        long itemOffset = Utils.readByBitsParam(source, header.getBitsParam());
-        BigInteger nameValue = Utils.readBigInteger(source, NAME_VALUE_LENGTH);
+        long itemOffset = reader.readByBitsParam(header.getBitsParam());
+        NameValue nameValue = reader.readNameValue();
 
         return new Item(operator, (byte) reserved, itemOffset, nameValue);
     }
 
-    private void validateRightsInfo() throws IOException, XDAException {
-        int length = RIGHTS_INFO.length;
-        byte[] rightsInfo = new byte[length];
-        if ((file.read(rightsInfo) != length) || !Arrays.equals(rightsInfo, RIGHTS_INFO)) {
-            throw new XDAException("The file has an invalid rights info. It might not be a valid xda file");
+    private synchronized PathIndex buildPathIndex() throws IOException, XDAException {
+        if (pathIndex != null) {
+            return pathIndex;
+        }
+        PathIndex.Builder builder = PathIndex.builder();
+        resolveItems(builder::add, (entryIndex, path, offset) -> builder.put(path, offset));
+        PathIndex index = builder.build();
+        this.pathIndex = index;
+        lazyLookups.clear();
+        if (indexFile != null) {
+            writeIndex(index);
         }
+        return index;
     }
 
-    private void updateFileToOffsetMap() {
-        Map<BigInteger, String> nameValues = new HashMap<>();
-        for (XDAEntry entry : entries) {
-            long entryOffset = entry.getBsOffset();
+    private synchronized PathHistory buildPathHistory() throws IOException, XDAException {
+        if (pathHistory != null) {
+            return pathHistory;
+        }
+        PathIndex index = buildPathIndex();
+        PathHistory.Builder builder = PathHistory.builder(index.size());
+        resolveItems(path -> {
+        }, (entryIndex, path, offset) -> builder.add(index.indexOf(path), entryIndex, offset));
+        PathHistory history = builder.build();
+        this.pathHistory = history;
+        return history;
+    }
+
+    /**
+     * Walk every entry in order, reporting each name and each item that adds, replaces or deletes a file
+     */
+    private void resolveItems(Consumer<String> names, ItemVisitor items) throws IOException, XDAException {
+        NameValueMap nameValues = new NameValueMap();
+        for (int i = 0; i < entries().size(); i++) {
+            XDAEntry entry = loadEntry(i).entry;
             for (NameMapping nm : entry.getNameTable()) {
                 nameValues.put(nm.getNameValue(), nm.getPath());
+                names.accept(nm.getPath());
             }
             for (Item item : entry.getItemList()) {
-                long fileOffset = item.getItemOffset() + entryOffset;
+                long offset = effectiveOffset(item, entry.getBsOffset());
                 String path = nameValues.get(item.getNameValue());
-                fileToOffsetMap.put(path, fileOffset);
+                if (offset != IGNORED_ITEM && path != null) {
+                    items.visit(i, path, offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the file offset an item points at, {@link PathIndex#NO_OFFSET} if it deletes its path,
+     * or {@link #IGNORED_ITEM} if it has no effect
+     */
+    static long effectiveOffset(Item item, long bsOffset) {
+        switch (item.getOperator()) {
+            case NEW:
+            case APPEND:
+            case REPLACE:
+                return bsOffset + item.getItemOffset();
+            case DELETE:
+                return PathIndex.NO_OFFSET;
+            default:
+                return IGNORED_ITEM;
+        }
+    }
+
+    private void writeIndex(PathIndex index) {
+        try {
+            FileRecord[] records = new FileRecord[index.size()];
+            for (int i = 0; i < records.length; i++) {
+                long offset = index.offsetAt(i);
+                if (offset != PathIndex.NO_OFFSET) {
+                    records[i] = readFileRecord(offset);
+                }
+            }
+            SidecarIndex.write(indexFile, fingerprint(), index, records);
+            this.indexedRecords = records;
+        } catch (IOException | XDAException e) {
+            // The index is only an optimization. Opening must not fail because it cannot be written,
+            // e.g. on a read-only mount.
+        }
+    }
+
+    /**
+     * Identity of the archive state a sidecar index is trusted for: the archive length and modification time, the raw header, and a
+     * digest of the fixed part of every entry, whose checksums change whenever the tables are rewritten.
+     * Walking the chain costs one small read per entry; the tables are what the index saves.
+     */
+    private byte[] fingerprint() throws IOException, XDAException {
+        int headerLength = RIGHTS_INFO.length + 1 + 1 + 4 + 1 + 1 + header.getBitsParam();
+        ByteBuffer fingerprint = ByteBuffer.allocate(8 + 8 + headerLength + CHECKSUM_LENGTH);
+        fingerprint.putLong(file.length());
+        fingerprint.putLong((archiveFile == null) ? 0L : archiveFile.lastModified());
+        fingerprint.limit(fingerprint.position() + headerLength);
+        file.fill(fingerprint, 0);
+        fingerprint.limit(fingerprint.capacity());
+        MessageDigest chain = Checksums.newEntryDigest();
+        ByteBuffer fields = ByteBuffer.allocate(8 + 4 + 8 + 8);
+        for (XDAEntry entry : entries()) {
+            fields.clear();
+            fields.putLong(entry.getPosition()).putInt(entry.getEntryLength())
+                    .putLong(entry.getBsOffset()).putLong(entry.getNext());
+            chain.update(fields.array());
+            chain.update(entry.getCheckSum());
+        }
+        fingerprint.put(chain.digest());
+        return fingerprint.array();
+    }
+
+    private FileRecord findFileRecord(String path) throws IOException, XDAException {
+        PathIndex index = pathIndex;
+        if (index != null) {
+            int ordinal = index.indexOf(path);
+            if (ordinal < 0 || index.offsetAt(ordinal) == PathIndex.NO_OFFSET) {
+                return null;
+            }
+            FileRecord[] records = indexedRecords;
+            return (records != null) ? records[ordinal] : readFileRecord(index.offsetAt(ordinal));
+        }
+        Long offset = lookupOffsetLazily(path);
+        return (offset == null || offset == PathIndex.NO_OFFSET) ? null : readFileRecord(offset);
+    }
+
+    private Long lookupOffsetLazily(String path) throws IOException, XDAException {
+        Long offset = lazyLookups.get(path);
+        if (offset == null) {
+            offset = findLatestOffset(path);
+            if (offset != null) {
+                lazyLookups.put(path, offset);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Resolve a single path without inflating the whole archive. Entries are inflated from the newest one
+     * backwards until an item for the path turns up, which is the same item the eager map would keep.
+     *
+     * @return the offset, {@link PathIndex#NO_OFFSET} if the path was deleted, or null if it never had a file
+     */
+    private Long findLatestOffset(String path) throws IOException, XDAException {
+        for (int i = entries().size() - 1; i >= 0; i--) {
+            XDAEntry entry = loadEntry(i).entry;
+            List<Item> itemList = entry.getItemList();
+            for (int j = itemList.size() - 1; j >= 0; j--) {
+                Item item = itemList.get(j);
+                long offset = effectiveOffset(item, entry.getBsOffset());
+                if (offset != IGNORED_ITEM && path.equals(resolveNameValue(i, item.getNameValue()))) {
+                    return offset;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the path a name value stood for as of the given entry
+     */
+    private String resolveNameValue(int entryIndex, NameValue nameValue) throws IOException, XDAException {
+        for (int i = entryIndex; i >= 0; i--) {
+            String path = loadEntry(i).nameValues.get(nameValue);
+            if (path != null) {
+                return path;
             }
         }
+        return null;
     }
 
-    private void validateClassType(byte[] classType) throws IOException, XDAException {
-        int length = classType.length;
-        byte[] theClassType = new byte[length];
-        if ((file.read(theClassType) != length) || !Arrays.equals(theClassType, classType)) {
+    private void validateClassType(long position, byte[] classType) throws IOException, XDAException {
+        ByteBuffer theClassType = ByteBuffer.allocate(classType.length);
+        file.fill(theClassType, position);
+        if (!Arrays.equals(theClassType.array(), classType)) {
             throw new XDAException("Class type is incorrect");
         }
     }
 
+    private static boolean readAndCompare(LittleEndianReader reader, byte[] expected) throws IOException {
+        if (!reader.hasRemaining(expected.length)) {
+            return false;
+        }
+        for (byte b : expected) {
+            if (reader.readByte() != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private InputStream openRegion(long position, int length, String name) throws IOException, XDAException {
+        if (length < 0 || position + length > file.length()) {
+            throw new XDAException("Failed to read " + name + ". Region is out of the file bounds");
+        }
+        return file.openRegion(position, length);
+    }
+
+    int getEntryHeaderLength() {
+        return 4 // Class Type
+                + 4 // Entry Length
+                + header.getBitsParam() // BSOffset
+                + header.getBitsParam() // Next
+                + 1 // Compress
+                + 16 // CheckSum
+                + 4; // NameTableLength
+    }
+
     private int getItemListLength(int entryLength, int nameTableLength) {
-        return entryLength
-                - 4 // Class Type
-                - 4 // Entry Length
-                - header.getBitsParam() // BSOffset
-                - header.getBitsParam() // Next
-                - 1 // Compress
-                - 16 // CheckSum
-                - 4 // NameTableLength
-                - nameTableLength;
-    }
-
-    private InputStream readFileData(long length, byte[] ecs) throws IOException, XDAException {
-        byte[] fileData = new byte[Math.toIntExact(length)];
-        file.read(fileData);
-        InputStream result = new ByteArrayInputStream(fileData);
-        return new InputStreamDecorator(result, ecs);
+        return entryLength - getEntryHeaderLength() - nameTableLength;
+    }
+
+    FileRecord readFileRecord(long offset) throws IOException, XDAException {
+        ByteBuffer head = ByteBuffer.allocate(FileRecord.MAX_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        file.fill(head, offset);
+        head.flip();
+        try {
+            byte checkSum = head.get();
+            long length = readByBitsParam(head, header.getBitsParam());
+            byte[] ecsBuffer = new byte[FileRecord.MAX_ECS_LENGTH];
+            byte b;
+            int ecsLength = 0;
+            while (((b = head.get()) != (byte) 0xff) && ecsLength < FileRecord.MAX_ECS_LENGTH) {
+                if (b == 0x00) {
+                    throw new XDAException("Invalid ECS value: 0x00");
+                }
+                ecsBuffer[ecsLength++] = b;
+            }
+            return new FileRecord(offset + head.position(), length, Arrays.copyOf(ecsBuffer, ecsLength), checkSum);
+        } catch (BufferUnderflowException e) {
+            throw new XDAException("Truncated file record at offset " + offset, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ItemVisitor {
+
+        void visit(int entryIndex, String path, long offset);
+    }
+
+    private static final class LoadedEntry {
+
+        private final XDAEntry entry;
+        private final NameValueMap nameValues;
+
+        private LoadedEntry(XDAEntry entry, NameValueMap nameValues) {
+            this.entry = entry;
+            this.nameValues = nameValues;
+        }
+    }
+
+    private static long readByBitsParam(ByteBuffer buffer, byte bitsParam) {
+        switch (bitsParam) {
+            case 0x02:
+                return buffer.getShort() & 0xffffL;
+            case 0x04:
+                return buffer.getInt() & 0xffffffffL;
+            case 0x08:
+                return buffer.getLong();
+            default:
+                throw new IllegalArgumentException("Invalid bitsParam: " + bitsParam);
+        }
+    }
+
+    private static int writeFully(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return length;
+    }
+
+    private static FileStream newFileStream(String filePath, FileRecord record, InputStream data) {
+        return new FileStream(filePath, record.getCheckSum(), record.getLength(), record.getEcs(), data);
+    }
+
+    /**
+     * Read the whole stream unless it holds more than {@code limit} bytes
+     *
+     * @return the contents, or null if the stream is longer
+     */
+    private static byte[] readAtMost(InputStream in, long limit) throws IOException {
+        try (InputStream data = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = data.read(buffer)) != -1) {
+                if (out.size() + n > limit) {
+                    return null;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private InputStream readFileData(FileRecord record) throws IOException, XDAException {
+        return new InputStreamDecorator(file.openRegion(record.getDataOffset(), record.getLength()), record.getEcs());
     }
 }
@@ -0,0 +1,626 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.Operator;
+import io.technicrow.xdakit.model.NameValue;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an XDA file: either a new archive holding a single entry, or one more entry appended to an existing archive.
+ * <p>
+ * File bodies are encoded on a worker pool as soon as they are added, while the calling thread lays out the
+ * encoded records in the order the files were added. A new archive is laid out as header, bit stream, entry and its
+ * header is completed on {@link #close()}. An appended bit stream and entry go after the last byte of the archive,
+ * and are linked in on {@link #close()} by patching the previous entry's {@code next} and then the entry count, so
+ * the cost is proportional to the change and an interrupted append leaves the previous contents readable.
+ * Instances are not thread-safe.
+ */
+public final class XDADocumentWriter implements Closeable {
+
+    private static final byte[] RIGHTS_INFO = {'@', 'X', 'D', 'A', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    private static final byte[] ENTRY_CLASS_TYPE = {'C', '.', 'E', 'n'};
+    private static final byte[] BIT_STREAM_CLASS_TYPE = {'C', '.', 'B', 'S'};
+    private static final byte NAME_TABLE_COMPRESS_MASK = 0x01;
+    private static final byte ITEM_LIST_COMPRESS_MASK = 0x02;
+    private static final byte ECS_END = (byte) 0xff;
+    private static final int ENTRY_COUNT_POSITION = RIGHTS_INFO.length + 1 + 1;
+    private static final int MAX_PATH_LENGTH = 2048;
+
+    private final FileChannel channel;
+    private final CountingOutputStream out;
+    private final byte bitsParam;
+    private final boolean compressNameTable;
+    private final boolean compressItemList;
+    private final byte[] defaultEcs;
+    private final int compressionLevel;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxPending;
+    private final Deque<PendingFile> pending = new ArrayDeque<>();
+    private final Set<String> paths = new HashSet<>();
+    private final ByteArrayOutputStream nameTable = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream itemList = new ByteArrayOutputStream();
+    private final long base;
+    private final long bsOffset;
+    private final ArchiveTail tail;
+    private int nameCount;
+    private boolean closed;
+
+    private XDADocumentWriter(Builder builder, FileChannel channel, ArchiveTail tail) throws IOException {
+        this.channel = channel;
+        this.tail = tail;
+        this.bitsParam = (tail != null) ? tail.bitsParam : builder.bitsParam;
+        this.compressNameTable = builder.compressNameTable;
+        this.compressItemList = builder.compressItemList;
+        this.defaultEcs = builder.ecs;
+        this.compressionLevel = builder.compressionLevel;
+        this.maxPending = builder.parallelism * 4;
+        this.base = (tail != null) ? tail.length : 0;
+        channel.position(base);
+        // Counting above the buffer gives the logical position of the next byte
+        this.out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        if (tail == null) {
+            // The header is written again with the real values on close
+            writeHeader(out, 0, 0);
+        }
+        this.bsOffset = position();
+        out.write(BIT_STREAM_CLASS_TYPE);
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownsExecutor = false;
+        } else {
+            this.executor = Executors.newFixedThreadPool(builder.parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "xda-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.ownsExecutor = true;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Add a file encoded with the writer's default ECS chain
+     */
+    public void addFile(@Nonnull String path, @Nonnull byte[] data) throws IOException, XDAException {
+        addFile(path, data, defaultEcs);
+    }
+
+    /**
+     * Add a file. The body is encoded by each ECS in turn, starting with {@code ecs[0]}, and decoded in reverse.
+     * The item is written as {@link Operator#NEW} in a new archive and as {@link Operator#APPEND} in an appended entry.
+     *
+     * @param ecs marks of codecs registered in {@link EcsCodecs}, at most 8; empty to store the body as is
+     */
+    public void addFile(@Nonnull String path, @Nonnull byte[] data, @Nonnull byte... ecs) throws IOException, XDAException {
+        addItem((tail == null) ? Operator.NEW : Operator.APPEND, path, data, ecs);
+    }
+
+    /**
+     * Replace the contents of a file already in the archive, encoded with the writer's default ECS chain
+     */
+    public void replaceFile(@Nonnull String path, @Nonnull byte[] data) throws IOException, XDAException {
+        replaceFile(path, data, defaultEcs);
+    }
+
+    /**
+     * Replace the contents of a file already in the archive ({@link Operator#REPLACE})
+     *
+     * @see #addFile(String, byte[], byte...)
+     */
+    public void replaceFile(@Nonnull String path, @Nonnull byte[] data, @Nonnull byte... ecs) throws IOException, XDAException {
+        requireAppend(Operator.REPLACE);
+        addItem(Operator.REPLACE, path, data, ecs);
+    }
+
+    /**
+     * Remove a file from the archive ({@link Operator#DELETE}). Its old body stays in the file until it is compacted.
+     */
+    public void deleteFile(@Nonnull String path) throws IOException, XDAException {
+        requireAppend(Operator.DELETE);
+        addItem(Operator.DELETE, path, null, new byte[0]);
+    }
+
+    /**
+     * Copy a file from another archive as it is stored, without decoding and encoding its body again.
+     * The source must stay open until this writer is closed.
+     */
+    public void copyFile(@Nonnull XDADocument source, @Nonnull String path) throws IOException, XDAException {
+        FileRecord record = source.findRecord(path);
+        if (record == null) {
+            throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", path));
+        }
+        NameValue nameValue = registerName(path);
+        EncodedBody body = new EncodedBody(() -> source.openRawData(record), record.getLength(), record.getEcs(),
+                record.getCheckSum());
+        enqueue((tail == null) ? Operator.NEW : Operator.APPEND, nameValue, CompletableFuture.completedFuture(body));
+    }
+
+    private void addItem(Operator operator, String path, byte[] data, byte[] ecs) throws IOException, XDAException {
+        byte[] chain = validateEcs(ecs);
+        NameValue nameValue = registerName(path);
+        Future<EncodedBody> body;
+        if (data == null) {
+            body = CompletableFuture.completedFuture(null);
+        } else {
+            int level = compressionLevel;
+            body = executor.submit(() -> encode(data, chain, level));
+        }
+        enqueue(operator, nameValue, body);
+    }
+
+    private NameValue registerName(String path) throws IOException {
+        ensureOpen();
+        validatePath(path);
+        if (!paths.add(path)) {
+            throw new IllegalArgumentException("Duplicate path: " + path);
+        }
+        // Values are unique per entry, so an appended table never rebinds a value an older entry uses
+        NameValue nameValue = new NameValue((tail == null) ? 0 : tail.entryCount, ++nameCount);
+        writeLittleEndian(nameTable, nameValue.getLow(), 8);
+        writeLittleEndian(nameTable, nameValue.getHigh(), 8);
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        nameTable.write(pathBytes, 0, pathBytes.length);
+        nameTable.write(0);
+        return nameValue;
+    }
+
+    private void enqueue(Operator operator, NameValue nameValue, Future<EncodedBody> body) throws IOException, XDAException {
+        pending.add(new PendingFile(operator, nameValue, body));
+        while (pending.size() > maxPending) {
+            writeRecord(pending.poll());
+        }
+    }
+
+    /**
+     * Write the remaining records and the entry, then complete the header or link the appended entry in
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean linked = false;
+        try {
+            while (!pending.isEmpty()) {
+                writeRecord(pending.poll());
+            }
+            long entryOffset = position();
+            writeEntry();
+            out.flush();
+            if (tail == null) {
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                writeHeader(header, 1, entryOffset);
+                writeAt(0, header.toByteArray());
+            } else {
+                link(entryOffset);
+            }
+            linked = true;
+        } catch (XDAException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            if (!linked && tail != null) {
+                // Nothing points at the partial entry yet, so dropping it restores the archive
+                channel.truncate(base);
+            }
+            for (PendingFile file : pending) {
+                file.body.cancel(true);
+            }
+            if (ownsExecutor) {
+                executor.shutdownNow();
+            }
+            channel.close();
+        }
+    }
+
+    private void writeRecord(PendingFile file) throws IOException, XDAException {
+        EncodedBody body;
+        try {
+            body = file.body.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding a file");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new XDAException("Failed to encode a file", cause);
+        }
+        long itemOffset = (body == null) ? 0 : position() - bsOffset;
+        itemList.write(file.operator.getValue());
+        writeLittleEndian(itemList, checkRange(itemOffset, "Bit stream"), bitsParam);
+        writeLittleEndian(itemList, file.nameValue.getLow(), 8);
+        writeLittleEndian(itemList, file.nameValue.getHigh(), 8);
+        if (body == null) {
+            return;
+        }
+
+        out.write(body.checkSum);
+        writeLittleEndian(out, checkRange(body.length, "File"), bitsParam);
+        out.write(body.ecs);
+        out.write(ECS_END);
+        if (body.data != null) {
+            out.write(body.data);
+        } else {
+            try (InputStream raw = body.source.open()) {
+                if (IOUtils.copyLarge(raw, out) != body.length) {
+                    throw new XDAException("Copied file body is truncated");
+                }
+            }
+        }
+    }
+
+    private void writeEntry() throws IOException, XDAException {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        writeLittleEndian(names, nameCount, 4);
+        nameTable.writeTo(names);
+        byte[] nameTableData = compressNameTable ? deflate(names.toByteArray(), compressionLevel) : names.toByteArray();
+        byte[] itemListData = compressItemList ? deflate(itemList.toByteArray(), compressionLevel) : itemList.toByteArray();
+        byte compress = (byte) ((compressNameTable ? NAME_TABLE_COMPRESS_MASK : 0)
+                | (compressItemList ? ITEM_LIST_COMPRESS_MASK : 0));
+        long entryLength = getEntryHeaderLength(bitsParam) + (long) nameTableData.length + itemListData.length;
+        if (entryLength > Integer.MAX_VALUE) {
+            throw new XDAException("Entry is too large: " + entryLength);
+        }
+        out.write(ENTRY_CLASS_TYPE);
+        writeLittleEndian(out, entryLength, 4);
+        writeLittleEndian(out, bsOffset, bitsParam);
+        writeLittleEndian(out, 0, bitsParam);
+        out.write(compress);
+        out.write(Checksums.entryCheckSum(nameTableData, itemListData));
+        writeLittleEndian(out, nameTableData.length, 4);
+        out.write(nameTableData);
+        out.write(itemListData);
+        checkRange(position(), "Archive");
+    }
+
+    /**
+     * Point the previous last entry (or the header) at the appended entry, then count it.
+     * Each step is forced to disk before the next, so a crash leaves either the old or the new archive.
+     */
+    private void link(long entryOffset) throws IOException {
+        channel.force(false);
+        ByteArrayOutputStream pointer = new ByteArrayOutputStream();
+        writeLittleEndian(pointer, entryOffset, bitsParam);
+        writeAt(tail.nextPointerPosition, pointer.toByteArray());
+        channel.force(false);
+        ByteArrayOutputStream count = new ByteArrayOutputStream();
+        writeLittleEndian(count, tail.entryCount + 1, 4);
+        writeAt(ENTRY_COUNT_POSITION, count.toByteArray());
+    }
+
+    private void writeAt(long position, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private long position() {
+        return base + out.getByteCount();
+    }
+
+    private void requireAppend(Operator operator) {
+        if (tail == null) {
+            throw new IllegalStateException(operator + " items can only be written to an appended entry");
+        }
+    }
+
+    private void writeHeader(OutputStream target, int entryCount, long firstEntryOffset) throws IOException {
+        target.write(RIGHTS_INFO);
+        target.write(1);
+        target.write(0);
+        writeLittleEndian(target, entryCount, 4);
+        target.write(0);
+        target.write(bitsParam);
+        writeLittleEndian(target, firstEntryOffset, bitsParam);
+    }
+
+    static int getEntryHeaderLength(byte bitsParam) {
+        return 4 // Class Type
+                + 4 // Entry Length
+                + bitsParam // BSOffset
+                + bitsParam // Next
+                + 1 // Compress
+                + 16 // CheckSum
+                + 4; // NameTableLength
+    }
+
+    private long checkRange(long value, String what) throws XDAException {
+        if (bitsParam < 8 && (value >>> (bitsParam * 8)) != 0) {
+            throw new XDAException(what + " is too large for bitsParam " + bitsParam + ": " + value);
+        }
+        return value;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+    }
+
+    private static void validatePath(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_PATH_LENGTH || path.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException("Invalid path: " + path);
+        }
+    }
+
+    static byte[] validateEcs(byte[] ecs) {
+        if (ecs.length > FileRecord.MAX_ECS_LENGTH) {
+            throw new IllegalArgumentException("At most " + FileRecord.MAX_ECS_LENGTH + " ECS marks are allowed");
+        }
+        for (byte mark : ecs) {
+            if (mark == 0 || EcsCodecs.get(mark) == null) {
+                throw new IllegalArgumentException("Invalid encryption mark: " + Integer.toHexString(mark & 0xff));
+            }
+        }
+        return ecs.clone();
+    }
+
+    static EncodedBody encode(byte[] data, byte[] ecs, int level) throws IOException {
+        byte[] result = data;
+        for (byte mark : ecs) {
+            EcsCodec codec = EcsCodecs.get(mark);
+            if (codec == null) {
+                throw new IllegalArgumentException("Invalid encryption mark: " + Integer.toHexString(mark & 0xff));
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(32, result.length / 2));
+            try (OutputStream encoded = codec.encode(buffer, level)) {
+                encoded.write(result);
+            }
+            result = buffer.toByteArray();
+        }
+        return new EncodedBody(result, ecs, Checksums.fileCheckSum(result, 0, result.length));
+    }
+
+    static byte[] deflate(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(buffer, deflater)) {
+            deflate.write(data);
+        } finally {
+            deflater.end();
+        }
+        return buffer.toByteArray();
+    }
+
+    static void writeLittleEndian(OutputStream target, long value, int bytes) throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            target.write((int) (value >>> (i * 8)));
+        }
+    }
+
+    /**
+     * A body as it goes into the bit stream: either encoded in memory, or copied from a source as is
+     */
+    static final class EncodedBody {
+
+        private final byte[] data;
+        private final RawSource source;
+        private final long length;
+        private final byte[] ecs;
+        private final byte checkSum;
+
+        private EncodedBody(byte[] data, byte[] ecs, byte checkSum) {
+            this.data = data;
+            this.source = null;
+            this.length = data.length;
+            this.ecs = ecs;
+            this.checkSum = checkSum;
+        }
+
+        private EncodedBody(RawSource source, long length, byte[] ecs, byte checkSum) {
+            this.data = null;
+            this.source = source;
+            this.length = length;
+            this.ecs = ecs;
+            this.checkSum = checkSum;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RawSource {
+
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Where an existing archive ends and how to link a new entry after its last one
+     */
+    private static final class ArchiveTail {
+
+        private final long length;
+        private final byte bitsParam;
+        private final int entryCount;
+        private final long nextPointerPosition;
+
+        private ArchiveTail(long length, byte bitsParam, int entryCount, long nextPointerPosition) {
+            this.length = length;
+            this.bitsParam = bitsParam;
+            this.entryCount = entryCount;
+            this.nextPointerPosition = nextPointerPosition;
+        }
+
+        /**
+         * Read the header and follow the entry chain through the fixed entry headers only
+         */
+        static ArchiveTail read(FileChannel channel) throws IOException, XDAException {
+            ByteBuffer buffer = ByteBuffer.allocate(RIGHTS_INFO.length + 1 + 1 + 4 + 1 + 1 + 8);
+            readAt(channel, buffer, 0);
+            LittleEndianReader reader = LittleEndianReader.of(buffer);
+            byte[] rightsInfo = new byte[RIGHTS_INFO.length];
+            reader.readFully(rightsInfo);
+            if (!Arrays.equals(rightsInfo, RIGHTS_INFO)) {
+                throw new XDAException("The file has an invalid rights info. It might not be a valid xda file");
+            }
+            reader.skipFully(2);
+            int entryCount = reader.readInt();
+            reader.skipFully(1);
+            byte bitsParam = reader.readByte();
+            long next = reader.readByBitsParam(bitsParam);
+            long nextPointerPosition = ENTRY_COUNT_POSITION + 4 + 1 + 1;
+
+            ByteBuffer entry = ByteBuffer.allocate(4 + 4 + bitsParam + bitsParam);
+            int count = 0;
+            while (count < entryCount && next != 0) {
+                entry.clear();
+                readAt(channel, entry, next);
+                reader.reset(entry);
+                byte[] classType = new byte[ENTRY_CLASS_TYPE.length];
+                reader.readFully(classType);
+                if (!Arrays.equals(classType, ENTRY_CLASS_TYPE)) {
+                    throw new XDAException("Class type is incorrect");
+                }
+                nextPointerPosition = next + 4 + 4 + bitsParam;
+                reader.skipFully(4 + bitsParam);
+                next = reader.readByBitsParam(bitsParam);
+                count++;
+            }
+            return new ArchiveTail(channel.size(), bitsParam, count, nextPointerPosition);
+        }
+
+        private static void readAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Truncated archive");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    private static final class PendingFile {
+
+        private final Operator operator;
+        private final NameValue nameValue;
+        private final Future<EncodedBody> body;
+
+        private PendingFile(Operator operator, NameValue nameValue, Future<EncodedBody> body) {
+            this.operator = operator;
+            this.nameValue = nameValue;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Options of a {@link XDADocumentWriter}
+     */
+    public static final class Builder {
+
+        private byte bitsParam = 4;
+        private boolean compressNameTable;
+        private boolean compressItemList;
+        private byte[] ecs = new byte[0];
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private ExecutorService executor;
+
+        private Builder() {
+        }
+
+        /**
+         * Width of offsets and lengths: 2, 4 (the default) or 8 bytes
+         */
+        public Builder bitsParam(int bitsParam) {
+            if (bitsParam != 2 && bitsParam != 4 && bitsParam != 8) {
+                throw new IllegalArgumentException("Invalid bitsParam: " + bitsParam);
+            }
+            this.bitsParam = (byte) bitsParam;
+            return this;
+        }
+
+        public Builder compressNameTable(boolean compressNameTable) {
+            this.compressNameTable = compressNameTable;
+            return this;
+        }
+
+        public Builder compressItemList(boolean compressItemList) {
+            this.compressItemList = compressItemList;
+            return this;
+        }
+
+        /**
+         * ECS chain for files added without one. Defaults to none, i.e. stored.
+         */
+        public Builder ecs(byte... ecs) {
+            this.ecs = validateEcs(ecs);
+            return this;
+        }
+
+        /**
+         * Deflate level for file bodies and tables
+         */
+        public Builder compressionLevel(int compressionLevel) {
+            if ((compressionLevel < 0 || compressionLevel > 9) && compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+                throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+            }
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Number of files encoded at once. Defaults to the number of processors.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Encode on the given executor instead of a pool owned by the writer. It is not shut down on close.
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Create (or overwrite) {@code output} as a new archive
+         */
+        public XDADocumentWriter build(@Nonnull File output) throws IOException {
+            FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                return new XDADocumentWriter(this, channel, null);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Append a new entry to the existing archive. Its bitsParam is kept, whatever this builder says.
+         * The archive must not be written by anyone else until the writer is closed.
+         */
+        public XDADocumentWriter append(@Nonnull File archive) throws IOException, XDAException {
+            FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new XDADocumentWriter(this, channel, ArchiveTail.read(channel));
+            } catch (IOException | XDAException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package io.technicrow.xdakit;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Extraction of every live file into a directory.
+ * <p>
+ * The calling thread reads stored bodies in offset order, so the archive is scanned forward once, and hands them to
+ * workers that decode and write them. A semaphore bounds the stored bytes read but not yet written; bodies larger
+ * than the whole budget are streamed from the archive by their worker while holding all of it.
+ */
+final class XDAExtractor {
+
+    private final XDADocument document;
+    private final Path targetDir;
+    private final ExtractOptions options;
+    private final Semaphore budget;
+    private final AtomicInteger extracted = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    XDAExtractor(XDADocument document, Path targetDir, ExtractOptions options) {
+        this.document = document;
+        this.targetDir = targetDir.toAbsolutePath().normalize();
+        this.options = options;
+        this.budget = new Semaphore(options.getMaxInFlightBytes());
+    }
+
+    int extract() throws IOException, XDAException {
+        List<Target> targets = resolveTargets();
+        Files.createDirectories(targetDir);
+        ExecutorService executor = options.getExecutor();
+        boolean ownsExecutor = executor == null;
+        if (ownsExecutor) {
+            executor = Executors.newFixedThreadPool(options.getParallelism(), runnable -> {
+                Thread thread = new Thread(runnable, "xda-extract");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        List<Future<?>> futures = new ArrayList<>(targets.size());
+        try {
+            for (Target target : targets) {
+                if (failure.get() != null) {
+                    break;
+                }
+                futures.add(submit(executor, target, targets.size()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new InterruptedIOException("Interrupted while extracting"));
+        } catch (IOException | RuntimeException e) {
+            // Reading a body failed while files were still being queued
+            failure.compareAndSet(null, e);
+        } finally {
+            awaitAll(futures);
+            if (ownsExecutor) {
+                executor.shutdown();
+            }
+        }
+        Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof XDAException) {
+            throw (XDAException) cause;
+        } else if (cause != null) {
+            throw new XDAException("Failed to extract a file", cause);
+        }
+        return extracted.get();
+    }
+
+    /**
+     * Wait for every submitted task, so that no worker still writes into the target directory once this returns.
+     * Workers are never interrupted or cancelled mid-write: an interrupted read would close the document's channel
+     * for every caller. Tasks not yet started see a recorded failure and skip their file, so after a failure this
+     * only waits for the writes already under way. An interrupt is recorded as the failure and restored afterwards.
+     */
+    private void awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    failure.compareAndSet(null, new InterruptedIOException("Interrupted while extracting"));
+                } catch (ExecutionException | CancellationException e) {
+                    // Tasks record their own failure
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resolve every live path to its record and output file, in offset order
+     */
+    private List<Target> resolveTargets() throws IOException, XDAException {
+        List<String> paths = document.listAllFiles();
+        List<Target> targets = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            FileRecord record = document.findRecord(path);
+            if (record == null) {
+                throw new XDAException("Cannot resolve a listed path: " + path);
+            }
+            String relative = path.replace('\\', '/');
+            while (relative.startsWith("/")) {
+                relative = relative.substring(1);
+            }
+            Path output = targetDir.resolve(relative).normalize();
+            if (!output.startsWith(targetDir) || output.equals(targetDir)) {
+                throw new XDAException("Path escapes the target directory: " + path);
+            }
+            targets.add(new Target(path, record, output));
+        }
+        targets.sort(Comparator.comparingLong(target -> target.record.getDataOffset()));
+        return targets;
+    }
+
+    private Future<?> submit(ExecutorService executor, Target target, int total) throws IOException, InterruptedException {
+        long length = target.record.getLength();
+        int permits = (int) Math.min(length, options.getMaxInFlightBytes());
+        budget.acquire(permits);
+        byte[] stored = null;
+        try {
+            if (length < options.getMaxInFlightBytes()) {
+                stored = document.readRaw(target.record);
+            }
+            byte[] body = stored;
+            return executor.submit(() -> {
+                try {
+                    if (failure.get() == null) {
+                        write(target, body);
+                        int done = extracted.incrementAndGet();
+                        ExtractOptions.Progress progress = options.getProgress();
+                        if (progress != null) {
+                            progress.fileExtracted(target.path, done, total);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    budget.release(permits);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            budget.release(permits);
+            throw e;
+        }
+    }
+
+    private void write(Target target, byte[] stored) throws IOException, XDAException {
+        Path parent = target.output.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        InputStream raw = (stored != null) ? new ByteArrayInputStream(stored) : document.openRawData(target.record);
+        try (InputStream data = new InputStreamDecorator(raw, target.record.getEcs())) {
+            if (options.isOverwrite()) {
+                Files.copy(data, target.output, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.copy(data, target.output);
+            }
+        }
+    }
+
+    private static final class Target {
+
+        private final String path;
+        private final FileRecord record;
+        private final Path output;
+
+        private Target(String path, FileRecord record, Path output) {
+            this.path = path;
+            this.record = record;
+            this.output = output;
+        }
+    }
+}
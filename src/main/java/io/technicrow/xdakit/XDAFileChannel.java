@@ -0,0 +1,286 @@
+package io.technicrow.xdakit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only {@link SeekableByteChannel} over the decoded contents of one file.
+ * <p>
+ * Stored files are read positionally from the archive. Files encoded with deflate alone are decoded forward from
+ * the nearest checkpoint of an {@link InflateIndex}, built on the first seek beyond one span, so a random read
+ * costs at most one span of decoding. Other ECS chains are decoded forward and restarted on backward seeks.
+ */
+abstract class XDAFileChannel implements SeekableByteChannel {
+
+    final XDADocument document;
+    final FileRecord record;
+    long position;
+    private boolean open = true;
+
+    private XDAFileChannel(XDADocument document, FileRecord record) {
+        this.document = document;
+        this.record = record;
+    }
+
+    static XDAFileChannel open(XDADocument document, FileRecord record) throws IOException {
+        byte[] ecs = record.getEcs();
+        if (EcsCodecs.isStored(ecs)) {
+            return new Stored(document, record);
+        }
+        if (isZlibDeflate(document, record)) {
+            return new Indexed(document, record);
+        }
+        return new Sequential(document, record);
+    }
+
+    /**
+     * @return true if the body is a single zlib stream decoded by the built-in deflate codec
+     */
+    private static boolean isZlibDeflate(XDADocument document, FileRecord record) throws IOException {
+        int marks = 0;
+        for (byte mark : record.getEcs()) {
+            if (mark != 0 && (mark != EcsCodecs.DEFLATE || ++marks > 1)) {
+                return false;
+            }
+        }
+        if (!EcsCodecs.isBuiltIn(EcsCodecs.DEFLATE) || record.getLength() < 2) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(2);
+        document.readRawAt(header, record.getDataOffset());
+        int cmf = header.get(0) & 0xff;
+        int flg = header.get(1) & 0xff;
+        // Deflate method, no preset dictionary, valid header check
+        return (cmf & 0x0f) == 8 && (flg & 0x20) == 0 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        try {
+            int n = readAt(dst);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        } catch (XDAException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        try {
+            return decodedSize();
+        } catch (XDAException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        release();
+    }
+
+    abstract int readAt(ByteBuffer dst) throws IOException, XDAException;
+
+    abstract long decodedSize() throws IOException, XDAException;
+
+    void release() throws IOException {
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static final class Stored extends XDAFileChannel {
+
+        private Stored(XDADocument document, FileRecord record) {
+            super(document, record);
+        }
+
+        @Override
+        int readAt(ByteBuffer dst) throws IOException {
+            long remaining = record.getLength() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (dst.remaining() <= remaining) {
+                return document.readRawAt(dst, record.getDataOffset() + position);
+            }
+            ByteBuffer window = dst.duplicate();
+            window.limit(window.position() + (int) remaining);
+            int n = document.readRawAt(window, record.getDataOffset() + position);
+            dst.position(window.position());
+            return n;
+        }
+
+        @Override
+        long decodedSize() {
+            return record.getLength();
+        }
+    }
+
+    private static final class Indexed extends XDAFileChannel {
+
+        private final byte[] scratch = new byte[8192];
+        private DeflateDecoder decoder;
+
+        private Indexed(XDADocument document, FileRecord record) {
+            super(document, record);
+        }
+
+        @Override
+        int readAt(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (decoder == null || decoder.outputPosition() > position
+                    || position - decoder.outputPosition() > InflateIndex.DEFAULT_SPAN) {
+                seek();
+            }
+            while (decoder.outputPosition() < position) {
+                int n = decoder.read(scratch, 0, (int) Math.min(scratch.length, position - decoder.outputPosition()));
+                if (n < 0) {
+                    return -1;
+                }
+            }
+            while (true) {
+                int n = decoder.read(scratch, 0, Math.min(scratch.length, dst.remaining()));
+                if (n < 0) {
+                    return -1;
+                } else if (n > 0) {
+                    dst.put(scratch, 0, n);
+                    return n;
+                }
+            }
+        }
+
+        private void seek() throws IOException {
+            if (position <= InflateIndex.DEFAULT_SPAN && !document.hasInflateIndex(record)) {
+                // Cheaper to decode from the start than to index the whole stream
+                decoder = new DeflateDecoder(document.openRawRegion(record.getDataOffset() + 2, record.getLength() - 2));
+                return;
+            }
+            InflateIndex index = document.inflateIndex(record);
+            int checkpoint = index.checkpointBefore(Math.min(position, index.getLength()));
+            long skip = 2 + index.bitPosition(checkpoint) / 8;
+            decoder = index.resume(checkpoint,
+                    document.openRawRegion(record.getDataOffset() + skip, record.getLength() - skip));
+        }
+
+        @Override
+        long decodedSize() throws IOException {
+            return document.inflateIndex(record).getLength();
+        }
+
+        @Override
+        void release() {
+            decoder = null;
+        }
+    }
+
+    private static final class Sequential extends XDAFileChannel {
+
+        private final byte[] scratch = new byte[8192];
+        private InputStream stream;
+        private long streamPosition;
+        private long size = -1;
+
+        private Sequential(XDADocument document, FileRecord record) {
+            super(document, record);
+        }
+
+        @Override
+        int readAt(ByteBuffer dst) throws IOException, XDAException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (stream == null || streamPosition > position) {
+                release();
+                stream = open();
+                streamPosition = 0;
+            }
+            while (streamPosition < position) {
+                int n = stream.read(scratch, 0, (int) Math.min(scratch.length, position - streamPosition));
+                if (n < 0) {
+                    return -1;
+                }
+                streamPosition += n;
+            }
+            int n = stream.read(scratch, 0, Math.min(scratch.length, dst.remaining()));
+            if (n < 0) {
+                return -1;
+            }
+            streamPosition += n;
+            dst.put(scratch, 0, n);
+            return n;
+        }
+
+        private InputStream open() throws IOException, XDAException {
+            return new InputStreamDecorator(document.openRawData(record), record.getEcs());
+        }
+
+        @Override
+        long decodedSize() throws IOException, XDAException {
+            if (size < 0) {
+                long total = 0;
+                try (InputStream in = open()) {
+                    int n;
+                    while ((n = in.read(scratch)) != -1) {
+                        total += n;
+                    }
+                }
+                size = total;
+            }
+            return size;
+        }
+
+        @Override
+        void release() throws IOException {
+            if (stream != null) {
+                stream.close();
+                stream = null;
+            }
+        }
+    }
+}
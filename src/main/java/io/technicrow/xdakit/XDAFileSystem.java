@@ -0,0 +1,288 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only {@link FileSystem} over the live files of one archive.
+ * <p>
+ * The directory tree is derived once from the path index when the file system is created, and file contents are
+ * read through the document's positional reads, so any number of threads can walk and read at once.
+ */
+final class XDAFileSystem extends FileSystem {
+
+    private static final Set<String> SUPPORTED_VIEWS = Collections.singleton("basic");
+
+    private final XDAFileSystemProvider provider;
+    private final Path archive;
+    private final XDADocument document;
+    private final FileTime lastModifiedTime;
+    private final Set<String> files;
+    private final Map<String, List<String>> directories = new HashMap<>();
+    private final Map<String, Long> sizes = new ConcurrentHashMap<>();
+    private final XDAFileStore fileStore;
+    private volatile boolean open = true;
+
+    XDAFileSystem(XDAFileSystemProvider provider, Path archive, XDADocument document) throws IOException {
+        this.provider = provider;
+        this.archive = archive;
+        this.document = document;
+        this.lastModifiedTime = Files.getLastModifiedTime(archive);
+        this.fileStore = new XDAFileStore(this, Files.size(archive));
+        List<String> paths = document.listAllFiles();
+        this.files = new HashSet<>(paths);
+        Map<String, Set<String>> children = new HashMap<>();
+        children.put("", new TreeSet<>());
+        for (String path : paths) {
+            String child = path;
+            int slash;
+            while ((slash = child.lastIndexOf('/')) >= 0) {
+                String parent = child.substring(0, slash);
+                boolean known = children.containsKey(parent);
+                children.computeIfAbsent(parent, key -> new TreeSet<>()).add(child.substring(slash + 1));
+                if (known) {
+                    break;
+                }
+                child = parent;
+            }
+            if (slash < 0) {
+                children.get("").add(child);
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : children.entrySet()) {
+            directories.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+    }
+
+    Path getArchive() {
+        return archive;
+    }
+
+    XDADocument getDocument() {
+        return document;
+    }
+
+    FileTime getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    boolean isDirectory(String archivePath) {
+        return directories.containsKey(archivePath);
+    }
+
+    boolean isFile(String archivePath) {
+        return files.contains(archivePath) && !directories.containsKey(archivePath);
+    }
+
+    /**
+     * @return the names in a directory, or null if there is no such directory
+     */
+    List<String> list(String archivePath) {
+        return directories.get(archivePath);
+    }
+
+    /**
+     * The decoded size of a file, worked out once
+     */
+    long size(String archivePath) throws IOException {
+        Long size = sizes.get(archivePath);
+        if (size == null) {
+            try (SeekableByteChannel channel = document.openFileChannel(archivePath)) {
+                size = channel.size();
+            } catch (XDAException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            sizes.put(archivePath, size);
+        }
+        return size;
+    }
+
+    void ensureOpen() {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public XDAFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        provider.removeFileSystem(this);
+        document.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Nonnull
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.singletonList(new XDAPath(this, "/"));
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.singletonList(fileStore);
+    }
+
+    XDAFileStore getFileStore() {
+        return fileStore;
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return SUPPORTED_VIEWS;
+    }
+
+    @Nonnull
+    @Override
+    public Path getPath(@Nonnull String first, @Nonnull String... more) {
+        if (more.length == 0) {
+            return new XDAPath(this, first);
+        }
+        StringBuilder path = new StringBuilder(first);
+        for (String name : more) {
+            if (!name.isEmpty()) {
+                if (path.length() > 0) {
+                    path.append('/');
+                }
+                path.append(name);
+            }
+        }
+        return new XDAPath(this, path.toString());
+    }
+
+    @Nonnull
+    @Override
+    public PathMatcher getPathMatcher(@Nonnull String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected syntax:pattern, got " + syntaxAndPattern);
+        }
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        Pattern regex;
+        if (syntax.equalsIgnoreCase("glob")) {
+            regex = Globs.compile(pattern);
+        } else if (syntax.equalsIgnoreCase("regex")) {
+            regex = Pattern.compile(pattern);
+        } else {
+            throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+        }
+        return path -> regex.matcher(path.toString()).matches();
+    }
+
+    @Nonnull
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("Archives have no owners");
+    }
+
+    @Nonnull
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Archives cannot be watched");
+    }
+
+    @Override
+    public String toString() {
+        return archive.toString();
+    }
+
+    /**
+     * The archive itself, as the single store of its file system
+     */
+    static final class XDAFileStore extends FileStore {
+
+        private final XDAFileSystem fileSystem;
+        private final long totalSpace;
+
+        private XDAFileStore(XDAFileSystem fileSystem, long totalSpace) {
+            this.fileSystem = fileSystem;
+            this.totalSpace = totalSpace;
+        }
+
+        @Override
+        public String name() {
+            return fileSystem.archive.toString();
+        }
+
+        @Override
+        public String type() {
+            return XDAFileSystemProvider.SCHEME;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public long getTotalSpace() {
+            return totalSpace;
+        }
+
+        @Override
+        public long getUsableSpace() {
+            return 0;
+        }
+
+        @Override
+        public long getUnallocatedSpace() {
+            return 0;
+        }
+
+        @Override
+        public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+            return type == BasicFileAttributeView.class;
+        }
+
+        @Override
+        public boolean supportsFileAttributeView(String name) {
+            return SUPPORTED_VIEWS.contains(name);
+        }
+
+        @Override
+        public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) {
+            throw new UnsupportedOperationException("Attribute '" + attribute + "' not supported");
+        }
+    }
+}
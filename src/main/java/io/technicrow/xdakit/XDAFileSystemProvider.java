@@ -0,0 +1,499 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.XDAOpenOption;
+
+import javax.annotation.Nonnull;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+
+/**
+ * {@link FileSystemProvider} for the {@code xda} scheme, exposing an archive as a read-only file system.
+ * <p>
+ * {@code FileSystems.newFileSystem(path, (ClassLoader) null)} opens an archive file directly; URIs have the form
+ * {@code xda:file:///data/doc.xda!/Pages/Page_0/Content.xml}, like those of the JDK zip file system. The environment
+ * may map {@code "openOptions"} to a collection of {@link XDAOpenOption}s for the underlying document.
+ */
+public final class XDAFileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "xda";
+    public static final String OPEN_OPTIONS = "openOptions";
+
+    private static final byte[] MAGIC = {'@', 'X', 'D', 'A'};
+
+    private final Map<Path, XDAFileSystem> fileSystems = new HashMap<>();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        Path archive = archiveOf(uri).toRealPath();
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archive)) {
+                throw new FileSystemAlreadyExistsException(archive.toString());
+            }
+            XDAFileSystem fileSystem = open(archive, env);
+            fileSystems.put(archive, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Open an archive file as a new file system, which is not registered for {@link #getFileSystem(URI)}
+     *
+     * @throws UnsupportedOperationException if the file is not an XDA archive
+     */
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        if (!isArchive(path)) {
+            throw new UnsupportedOperationException("Not an XDA archive: " + path);
+        }
+        return open(path.toAbsolutePath(), env);
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        try {
+            return registered(archiveOf(uri).toRealPath());
+        } catch (IOException e) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Path getPath(@Nonnull URI uri) {
+        String spec = uri.getSchemeSpecificPart();
+        int separator = spec.indexOf("!/");
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme()) || separator < 0) {
+            throw new IllegalArgumentException("Not an xda URI with an entry path: " + uri);
+        }
+        try {
+            return registered(archiveOf(uri).toRealPath()).getPath(spec.substring(separator + 1));
+        } catch (IOException e) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        checkReadOnly(options);
+        XDAPath file = checkPath(path);
+        String archivePath = checkFile(file);
+        try {
+            return file.getFileSystem().getDocument().openFileChannel(archivePath);
+        } catch (XDAException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read through the document's forward stream, which is cheaper than a channel for files read once
+     */
+    @Override
+    public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+        checkReadOnly(new HashSet<>(Arrays.asList(options)));
+        XDAPath file = checkPath(path);
+        String archivePath = checkFile(file);
+        try {
+            return file.getFileSystem().getDocument().getFile(archivePath).getInputStream();
+        } catch (FileNotFoundException e) {
+            throw new NoSuchFileException(path.toString());
+        } catch (XDAException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        XDAPath directory = checkPath(dir);
+        List<String> names = directory.getFileSystem().list(directory.toArchivePath());
+        if (names == null) {
+            if (directory.getFileSystem().isFile(directory.toArchivePath())) {
+                throw new NotDirectoryException(dir.toString());
+            }
+            throw new NoSuchFileException(dir.toString());
+        }
+        List<Path> entries = new ArrayList<>(names.size());
+        for (String name : names) {
+            Path entry = directory.resolve(name);
+            if (filter.accept(entry)) {
+                entries.add(entry);
+            }
+        }
+        return new DirectoryStream<Path>() {
+            private boolean iterated;
+            private boolean closed;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (closed || iterated) {
+                    throw new IllegalStateException("Directory stream is closed or already iterated");
+                }
+                iterated = true;
+                return Collections.unmodifiableList(entries).iterator();
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (!(path2 instanceof XDAPath) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        checkAccess(path);
+        checkAccess(path2);
+        return checkPath(path).toArchivePath().equals(checkPath(path2).toArchivePath());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        XDAPath file = checkPath(path);
+        checkAccess(file);
+        return file.getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        XDAPath file = checkPath(path);
+        String archivePath = file.toArchivePath();
+        if (!file.getFileSystem().isDirectory(archivePath) && !file.getFileSystem().isFile(archivePath)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        for (AccessMode mode : modes) {
+            if (mode != AccessMode.READ) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        XDAPath file = checkPath(path);
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return Attributes.of(file);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Attributes of type " + type.getName() + " not supported");
+        }
+        return (A) Attributes.of(checkPath(path));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        String names = attributes;
+        int colon = attributes.indexOf(':');
+        if (colon >= 0) {
+            if (!attributes.substring(0, colon).equals("basic")) {
+                throw new UnsupportedOperationException("View '" + attributes.substring(0, colon) + "' not supported");
+            }
+            names = attributes.substring(colon + 1);
+        }
+        Attributes read = Attributes.of(checkPath(path));
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                for (String known : Attributes.NAMES) {
+                    result.put(known, read.get(known));
+                }
+            } else if (Attributes.NAMES.contains(name)) {
+                result.put(name, read.get(name));
+            } else {
+                throw new IllegalArgumentException("Attribute '" + name + "' not recognized");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    void removeFileSystem(XDAFileSystem fileSystem) {
+        synchronized (fileSystems) {
+            fileSystems.values().remove(fileSystem);
+        }
+    }
+
+    private XDAFileSystem open(Path archive, Map<String, ?> env) throws IOException {
+        Object options = env.get(OPEN_OPTIONS);
+        XDAOpenOption[] openOptions = new XDAOpenOption[0];
+        if (options instanceof Collection) {
+            openOptions = ((Collection<?>) options).toArray(openOptions);
+        } else if (options != null) {
+            throw new IllegalArgumentException(OPEN_OPTIONS + " must be a collection of XDAOpenOption");
+        }
+        XDADocument document;
+        try {
+            if (archive.getFileSystem() == FileSystems.getDefault()) {
+                document = XDADocument.open(archive.toFile(), openOptions);
+            } else {
+                // An archive inside another file system, such as a zip
+                document = XDADocument.open(ArchiveSource.of(Files.newByteChannel(archive)), openOptions);
+            }
+        } catch (XDAException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            return new XDAFileSystem(this, archive, document);
+        } catch (IOException | RuntimeException e) {
+            document.close();
+            throw e;
+        }
+    }
+
+    private XDAFileSystem registered(Path archive) {
+        synchronized (fileSystems) {
+            XDAFileSystem fileSystem = fileSystems.get(archive);
+            if (fileSystem == null) {
+                throw new FileSystemNotFoundException(archive.toString());
+            }
+            return fileSystem;
+        }
+    }
+
+    private static boolean isArchive(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        byte[] head = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n = 0;
+            while (n < head.length) {
+                int read = in.read(head, n, head.length - n);
+                if (read < 0) {
+                    return false;
+                }
+                n += read;
+            }
+        }
+        return Arrays.equals(head, MAGIC);
+    }
+
+    private static Path archiveOf(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not '" + SCHEME + "': " + uri);
+        }
+        String spec = uri.getSchemeSpecificPart();
+        int separator = spec.indexOf("!/");
+        if (separator >= 0) {
+            spec = spec.substring(0, separator);
+        }
+        try {
+            return Paths.get(new URI(spec));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid archive URI: " + spec, e);
+        }
+    }
+
+    private static void checkReadOnly(Set<? extends OpenOption> options) {
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND
+                    || option == StandardOpenOption.CREATE || option == StandardOpenOption.CREATE_NEW
+                    || option == StandardOpenOption.TRUNCATE_EXISTING || option == StandardOpenOption.DELETE_ON_CLOSE) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+    }
+
+    private static XDAPath checkPath(Path path) {
+        if (!(path instanceof XDAPath)) {
+            throw new ProviderMismatchException();
+        }
+        XDAPath xdaPath = (XDAPath) path;
+        xdaPath.getFileSystem().ensureOpen();
+        return xdaPath;
+    }
+
+    /**
+     * @return the archive path of a regular file
+     */
+    private static String checkFile(XDAPath path) throws IOException {
+        String archivePath = path.toArchivePath();
+        if (path.getFileSystem().isDirectory(archivePath)) {
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+        if (!path.getFileSystem().isFile(archivePath)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return archivePath;
+    }
+
+    /**
+     * Basic attributes of an archive path. The size of a compressed file is only worked out when asked for.
+     */
+    private static final class Attributes implements BasicFileAttributes {
+
+        private static final List<String> NAMES = Arrays.asList("size", "lastModifiedTime", "lastAccessTime",
+                "creationTime", "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey");
+
+        private final XDAFileSystem fileSystem;
+        private final String archivePath;
+        private final boolean directory;
+
+        private Attributes(XDAFileSystem fileSystem, String archivePath, boolean directory) {
+            this.fileSystem = fileSystem;
+            this.archivePath = archivePath;
+            this.directory = directory;
+        }
+
+        static Attributes of(XDAPath path) throws IOException {
+            XDAFileSystem fileSystem = path.getFileSystem();
+            String archivePath = path.toArchivePath();
+            if (fileSystem.isDirectory(archivePath)) {
+                return new Attributes(fileSystem, archivePath, true);
+            }
+            if (fileSystem.isFile(archivePath)) {
+                return new Attributes(fileSystem, archivePath, false);
+            }
+            throw new NoSuchFileException(path.toString());
+        }
+
+        Object get(String name) {
+            switch (name) {
+                case "size":
+                    return size();
+                case "lastModifiedTime":
+                    return lastModifiedTime();
+                case "lastAccessTime":
+                    return lastAccessTime();
+                case "creationTime":
+                    return creationTime();
+                case "isRegularFile":
+                    return isRegularFile();
+                case "isDirectory":
+                    return isDirectory();
+                case "isSymbolicLink":
+                    return isSymbolicLink();
+                case "isOther":
+                    return isOther();
+                default:
+                    return fileKey();
+            }
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return fileSystem.getLastModifiedTime();
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return fileSystem.getLastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return fileSystem.getLastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !directory;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        /**
+         * @throws UncheckedIOException if the file cannot be decoded to find its size
+         */
+        @Override
+        public long size() {
+            if (directory) {
+                return 0;
+            }
+            try {
+                return fileSystem.size(archivePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
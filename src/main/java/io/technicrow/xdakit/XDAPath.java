@@ -0,0 +1,318 @@
+package io.technicrow.xdakit;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Path in an {@link XDAFileSystem}: names separated by {@code /}, absolute if it starts with one
+ */
+final class XDAPath implements Path {
+
+    private final XDAFileSystem fileSystem;
+    private final String path;
+    private final String[] names;
+
+    XDAPath(XDAFileSystem fileSystem, String path) {
+        if (path.indexOf('\0') >= 0) {
+            throw new InvalidPathException(path, "NUL character not allowed");
+        }
+        this.fileSystem = fileSystem;
+        StringBuilder normalized = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != '/' || normalized.length() == 0 || normalized.charAt(normalized.length() - 1) != '/') {
+                normalized.append(c);
+            }
+        }
+        if (normalized.length() > 1 && normalized.charAt(normalized.length() - 1) == '/') {
+            normalized.setLength(normalized.length() - 1);
+        }
+        this.path = normalized.toString();
+        String relative = isAbsolute() ? this.path.substring(1) : this.path;
+        this.names = (isAbsolute() && relative.isEmpty()) ? new String[0] : relative.split("/", -1);
+    }
+
+    private XDAPath(XDAFileSystem fileSystem, boolean absolute, List<String> names) {
+        this(fileSystem, (absolute ? "/" : "") + String.join("/", names));
+    }
+
+    /**
+     * @return the archive path this path resolves to, without a leading separator; empty for the root
+     */
+    String toArchivePath() {
+        XDAPath absolute = (XDAPath) toAbsolutePath().normalize();
+        return absolute.path.substring(1);
+    }
+
+    @Nonnull
+    @Override
+    public XDAFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new XDAPath(fileSystem, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        if (names.length == 0) {
+            return null;
+        }
+        if (names.length == 1 && !isAbsolute()) {
+            return this;
+        }
+        return new XDAPath(fileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        if (names.length == 0 || (names.length == 1 && !isAbsolute())) {
+            return null;
+        }
+        return new XDAPath(fileSystem, isAbsolute(), Arrays.asList(names).subList(0, names.length - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return names.length;
+    }
+
+    @Nonnull
+    @Override
+    public Path getName(int index) {
+        return subpath(index, index + 1);
+    }
+
+    @Nonnull
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || beginIndex >= endIndex || endIndex > names.length) {
+            throw new IllegalArgumentException("Invalid name range: " + beginIndex + ", " + endIndex);
+        }
+        return new XDAPath(fileSystem, false, Arrays.asList(names).subList(beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(@Nonnull Path other) {
+        if (!(other instanceof XDAPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        XDAPath that = (XDAPath) other;
+        if (that.isAbsolute() != isAbsolute() || that.names.length > names.length) {
+            return false;
+        }
+        if (that.path.isEmpty()) {
+            return path.isEmpty();
+        }
+        for (int i = 0; i < that.names.length; i++) {
+            if (!that.names[i].equals(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(@Nonnull String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(@Nonnull Path other) {
+        if (!(other instanceof XDAPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        XDAPath that = (XDAPath) other;
+        if (that.isAbsolute()) {
+            return equals(that);
+        }
+        if (that.names.length > names.length || that.path.isEmpty()) {
+            return that.path.equals(path);
+        }
+        for (int i = 1; i <= that.names.length; i++) {
+            if (!that.names[that.names.length - i].equals(names[names.length - i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(@Nonnull String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Nonnull
+    @Override
+    public Path normalize() {
+        List<String> result = new ArrayList<>(names.length);
+        for (String name : names) {
+            if (name.equals(".") || name.isEmpty()) {
+                continue;
+            }
+            if (name.equals("..") && !result.isEmpty() && !result.get(result.size() - 1).equals("..")) {
+                result.remove(result.size() - 1);
+            } else if (!name.equals("..") || !isAbsolute()) {
+                // Going above the root stays at the root
+                result.add(name);
+            }
+        }
+        return new XDAPath(fileSystem, isAbsolute(), result);
+    }
+
+    @Nonnull
+    @Override
+    public Path resolve(@Nonnull Path other) {
+        XDAPath that = checkPath(other);
+        if (that.isAbsolute() || path.isEmpty()) {
+            return that;
+        }
+        if (that.path.isEmpty()) {
+            return this;
+        }
+        return new XDAPath(fileSystem, path + "/" + that.path);
+    }
+
+    @Nonnull
+    @Override
+    public Path resolve(@Nonnull String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Nonnull
+    @Override
+    public Path resolveSibling(@Nonnull Path other) {
+        Path parent = getParent();
+        return (parent == null) ? other : parent.resolve(other);
+    }
+
+    @Nonnull
+    @Override
+    public Path resolveSibling(@Nonnull String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Nonnull
+    @Override
+    public Path relativize(@Nonnull Path other) {
+        XDAPath that = checkPath(other);
+        if (that.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Cannot relativize an absolute and a relative path");
+        }
+        String[] from = path.isEmpty() ? new String[0] : names;
+        String[] to = that.path.isEmpty() ? new String[0] : that.names;
+        int common = 0;
+        while (common < from.length && common < to.length && from[common].equals(to[common])) {
+            common++;
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = common; i < from.length; i++) {
+            result.add("..");
+        }
+        result.addAll(Arrays.asList(to).subList(common, to.length));
+        return new XDAPath(fileSystem, false, result);
+    }
+
+    @Nonnull
+    @Override
+    public URI toUri() {
+        try {
+            return new URI(XDAFileSystemProvider.SCHEME,
+                    fileSystem.getArchive().toUri().toString() + "!" + ((XDAPath) toAbsolutePath()).path, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Path toAbsolutePath() {
+        return isAbsolute() ? this : new XDAPath(fileSystem, "/" + path);
+    }
+
+    @Nonnull
+    @Override
+    public Path toRealPath(@Nonnull LinkOption... options) throws IOException {
+        Path real = toAbsolutePath().normalize();
+        fileSystem.provider().checkAccess(real);
+        return real;
+    }
+
+    @Nonnull
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Archive paths have no java.io.File");
+    }
+
+    @Nonnull
+    @Override
+    public WatchKey register(@Nonnull WatchService watcher, @Nonnull WatchEvent.Kind<?>[] events,
+                             WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Archives cannot be watched");
+    }
+
+    @Nonnull
+    @Override
+    public WatchKey register(@Nonnull WatchService watcher, @Nonnull WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("Archives cannot be watched");
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> result = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            result.add(getName(i));
+        }
+        return result.iterator();
+    }
+
+    @Override
+    public int compareTo(@Nonnull Path other) {
+        return path.compareTo(((XDAPath) other).path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+
+        if (o == null || getClass() != o.getClass()) return false;
+
+        XDAPath that = (XDAPath) o;
+
+        return fileSystem == that.fileSystem && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    private XDAPath checkPath(Path other) {
+        if (!(other instanceof XDAPath) || other.getFileSystem() != fileSystem) {
+            throw new ProviderMismatchException();
+        }
+        return (XDAPath) other;
+    }
+}
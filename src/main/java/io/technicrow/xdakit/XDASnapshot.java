@@ -0,0 +1,79 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.FileStream;
+
+import javax.annotation.Nonnull;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of an {@link XDADocument} as of one of its entries
+ */
+final class XDASnapshot implements XDA {
+
+    private final XDADocument document;
+    private final PathIndex pathIndex;
+    private final PathHistory pathHistory;
+    private final int entryIndex;
+    private volatile List<String> files;
+
+    XDASnapshot(XDADocument document, PathIndex pathIndex, PathHistory pathHistory, int entryIndex) {
+        this.document = document;
+        this.pathIndex = pathIndex;
+        this.pathHistory = pathHistory;
+        this.entryIndex = entryIndex;
+    }
+
+    @Override
+    public boolean validate() {
+        return document.validate();
+    }
+
+    @Override
+    @Nonnull
+    public List<String> listAllFiles() {
+        List<String> result = files;
+        if (result == null) {
+            result = new ArrayList<>();
+            int ordinal = 0;
+            for (String path : pathIndex.paths()) {
+                if (pathHistory.offsetAsOf(ordinal++, entryIndex) != PathIndex.NO_OFFSET) {
+                    result.add(path);
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            files = result;
+        }
+        return result;
+    }
+
+    @Override
+    public FileStream getFile(@Nonnull String path) throws IOException, XDAException {
+        int ordinal = pathIndex.indexOf(path);
+        long offset = (ordinal < 0) ? PathIndex.NO_OFFSET : pathHistory.offsetAsOf(ordinal, entryIndex);
+        if (offset == PathIndex.NO_OFFSET) {
+            throw new FileNotFoundException(String.format("This XDA file doesn't contain such path: %s", path));
+        }
+        return document.getFileAt(path, offset);
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return document.getMajorVersion();
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return document.getMinorVersion();
+    }
+
+    /**
+     * Does nothing; the document stays open
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,248 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.Item;
+import io.technicrow.xdakit.model.NameMapping;
+import io.technicrow.xdakit.model.XDAEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Structural and, on request, checksum validation of a whole archive.
+ * <p>
+ * The entry chain is walked first. Entries are then parsed and digested in parallel, their items are resolved, and
+ * every distinct file record is parsed, checksummed and fully decoded in parallel. All reads are positional.
+ * Checksums are only verified when asked for, since they follow the convention of {@link Checksums} and not the
+ * format. File checksums are then only checked in entries that carry an entry checksum; an all-zero entry checksum
+ * means the writer did not compute checksums.
+ */
+final class XDAValidator {
+
+    private static final int FILES_PER_TASK = 16;
+
+    private final XDADocument document;
+    private final boolean failFast;
+    private final boolean verifyChecksums;
+    private final Queue<ValidationReport.Problem> problems = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicInteger entriesChecked = new AtomicInteger();
+    private final AtomicLong filesChecked = new AtomicLong();
+
+    XDAValidator(XDADocument document, boolean failFast, boolean verifyChecksums) {
+        this.document = document;
+        this.failFast = failFast;
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    ValidationReport validate(ForkJoinPool pool) {
+        try {
+            List<XDAEntry> entries = document.entries();
+            int declared = document.header().getEntryCount();
+            if (entries.size() != declared) {
+                report(-1, null, "The header declares " + declared + " entries but the chain has " + entries.size());
+            }
+            if (!shouldStop()) {
+                pool.invoke(new EntriesTask(entries));
+            }
+            if (!shouldStop()) {
+                List<FileCheck> files = resolveFiles(entries);
+                pool.invoke(new FilesTask(files, 0, files.size()));
+            }
+        } catch (IOException | XDAException e) {
+            report(-1, null, "Cannot walk the entry chain: " + e.getMessage());
+        }
+        return new ValidationReport(new ArrayList<>(problems), entriesChecked.get(), filesChecked.get(),
+                !stopped.get());
+    }
+
+    private boolean shouldStop() {
+        return stopped.get();
+    }
+
+    private void report(long offset, String path, String message) {
+        problems.add(new ValidationReport.Problem(offset, path, message));
+        if (failFast) {
+            stopped.set(true);
+        }
+    }
+
+    private void checkEntry(XDAEntry stub) {
+        long tablesPosition = stub.getPosition() + document.getEntryHeaderLength();
+        try {
+            document.loadedEntry(stub.getIndex());
+        } catch (IOException | XDAException e) {
+            report(stub.getPosition(), null, "Entry " + stub.getIndex() + " is malformed: " + e.getMessage());
+            return;
+        }
+        byte[] expected = stub.getCheckSum();
+        if (verifyChecksums && isSigned(expected)) {
+            long length = stub.getEntryLength() - document.getEntryHeaderLength();
+            MessageDigest digest = Checksums.newEntryDigest();
+            try (InputStream tables = document.openRawRegion(tablesPosition, length)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = tables.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                report(stub.getPosition(), null, "Cannot read entry " + stub.getIndex() + ": " + e.getMessage());
+                return;
+            }
+            if (!MessageDigest.isEqual(expected, digest.digest())) {
+                report(stub.getPosition(), null, "Checksum mismatch in entry " + stub.getIndex());
+            }
+        }
+        entriesChecked.incrementAndGet();
+    }
+
+    /**
+     * Resolve the items of every entry to the file records they point at
+     */
+    private List<FileCheck> resolveFiles(List<XDAEntry> entries) {
+        Map<Long, FileCheck> files = new LinkedHashMap<>();
+        NameValueMap nameValues = new NameValueMap();
+        for (XDAEntry stub : entries) {
+            XDAEntry entry;
+            try {
+                entry = document.loadedEntry(stub.getIndex());
+            } catch (IOException | XDAException e) {
+                // Already reported by the entry check
+                continue;
+            }
+            for (NameMapping nm : entry.getNameTable()) {
+                nameValues.put(nm.getNameValue(), nm.getPath());
+            }
+            boolean signed = verifyChecksums && isSigned(entry.getCheckSum());
+            for (Item item : entry.getItemList()) {
+                String path = nameValues.get(item.getNameValue());
+                long offset = XDADocument.effectiveOffset(item, entry.getBsOffset());
+                if (path == null) {
+                    report(entry.getPosition(), null, "Entry " + entry.getIndex() + " has an item for unknown name value "
+                            + item.getNameValue());
+                } else if (offset >= 0) {
+                    FileCheck previous = files.get(offset);
+                    if (previous == null || (signed && !previous.verifyChecksum)) {
+                        files.put(offset, new FileCheck(offset, path, signed));
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    private void checkFile(FileCheck check) {
+        FileRecord record;
+        try {
+            record = document.readFileRecord(check.offset);
+            if (record.getDataOffset() + record.getLength() > document.fileLength() || record.getLength() < 0) {
+                report(check.offset, check.path, "File body is out of the file bounds");
+                return;
+            }
+        } catch (IOException | XDAException e) {
+            report(check.offset, check.path, "Malformed file record: " + e.getMessage());
+            return;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new CheckedInputStream(document.openRawData(record), crc)) {
+            try (InputStream decoded = new InputStreamDecorator(raw, record.getEcs())) {
+                drain(decoded);
+                // A codec may stop before the end of the stored body
+                drain(raw);
+            }
+        } catch (IOException | XDAException | RuntimeException e) {
+            report(check.offset, check.path, "Cannot decode file body: " + e.getMessage());
+            return;
+        }
+        if (check.verifyChecksum && Checksums.fileCheckSum(crc) != record.getCheckSum()) {
+            report(check.offset, check.path, "Checksum mismatch");
+        }
+        filesChecked.incrementAndGet();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // Only reading matters
+        }
+    }
+
+    private static boolean isSigned(byte[] checkSum) {
+        for (byte b : checkSum) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class FileCheck {
+
+        private final long offset;
+        private final String path;
+        private final boolean verifyChecksum;
+
+        private FileCheck(long offset, String path, boolean verifyChecksum) {
+            this.offset = offset;
+            this.path = path;
+            this.verifyChecksum = verifyChecksum;
+        }
+    }
+
+    private final class EntriesTask extends RecursiveAction {
+
+        private final List<XDAEntry> entries;
+
+        private EntriesTask(List<XDAEntry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(entries.size());
+            for (XDAEntry entry : entries) {
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    if (!shouldStop()) {
+                        checkEntry(entry);
+                    }
+                }));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private final class FilesTask extends RecursiveAction {
+
+        private final List<FileCheck> files;
+        private final int from;
+        private final int to;
+
+        private FilesTask(List<FileCheck> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FILES_PER_TASK) {
+                for (int i = from; i < to && !shouldStop(); i++) {
+                    checkFile(files.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FilesTask(files, from, mid), new FilesTask(files, mid, to));
+        }
+    }
+}
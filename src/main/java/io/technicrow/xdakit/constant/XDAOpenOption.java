@@ -0,0 +1,24 @@
+package io.technicrow.xdakit.constant;
+
+/**
+ * Options controlling how an XDA file is opened
+ */
+public enum XDAOpenOption {
+
+    /**
+     * Map the archive into memory and parse it straight from the mapped buffers
+     */
+    MEMORY_MAPPED,
+
+    /**
+     * Only walk the entry chain at open. Name tables and item lists are inflated when a lookup first needs them,
+     * newest entry first, so fetching a known path does not pay for the whole archive.
+     */
+    LAZY,
+
+    /**
+     * Keep the resolved path table in {@code <archive>.idx} next to the archive. When the index matches the
+     * archive it is loaded instead of parsing the entry chain; otherwise it is (re)written once the paths are resolved.
+     */
+    SIDECAR_INDEX,
+}
@@ -5,8 +5,6 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
-import java.math.BigInteger;
-
 /**
  * Item in the ItemList
  */
@@ -18,9 +16,9 @@ public class Item {
 
     private Long itemOffset;
 
-    private BigInteger nameValue;
+    private NameValue nameValue;
 
-    public Item(Operator operator, Byte reserved, Long itemOffset, BigInteger nameValue) {
+    public Item(Operator operator, Byte reserved, Long itemOffset, NameValue nameValue) {
         this.operator = operator;
         this.reserved = reserved;
         this.itemOffset = itemOffset;
@@ -42,7 +40,7 @@ public class Item {
         return this.itemOffset;
     }
 
-    public BigInteger getNameValue() {
+    public NameValue getNameValue() {
         return this.nameValue;
     }
 
@@ -58,7 +56,7 @@ public class Item {
         this.itemOffset = itemOffset;
     }
 
-    public void setNameValue(BigInteger nameValue) {
+    public void setNameValue(NameValue nameValue) {
         this.nameValue = nameValue;
     }
 
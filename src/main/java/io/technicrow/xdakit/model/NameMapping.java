@@ -4,23 +4,21 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
-import java.math.BigInteger;
-
 /**
  * NameMapping entity in the {@link NameTable}
  */
 public class NameMapping {
 
-    private BigInteger nameValue;
+    private NameValue nameValue;
 
     private String path;
 
-    public NameMapping(BigInteger nameValue, String path) {
+    public NameMapping(NameValue nameValue, String path) {
         this.nameValue = nameValue;
         this.path = path;
     }
 
-    public BigInteger getNameValue() {
+    public NameValue getNameValue() {
         return this.nameValue;
     }
 
@@ -28,7 +26,7 @@ public class NameMapping {
         return this.path;
     }
 
-    public void setNameValue(BigInteger nameValue) {
+    public void setNameValue(NameValue nameValue) {
         this.nameValue = nameValue;
     }
 
@@ -0,0 +1,56 @@
+package io.technicrow.xdakit.model;
+
+import java.math.BigInteger;
+
+/**
+ * 128-bit NameValue, held as two longs.
+ * The value is stored little-endian in the file: the first 8 bytes are the low half.
+ */
+public final class NameValue {
+
+    private final long high;
+
+    private final long low;
+
+    public NameValue(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * @return the signed 128-bit value, as previously exposed by {@code Utils.readBigInteger}
+     */
+    public BigInteger toBigInteger() {
+        BigInteger lowPart = BigInteger.valueOf(low >>> 1).shiftLeft(1).or(BigInteger.valueOf(low & 1));
+        return BigInteger.valueOf(high).shiftLeft(64).or(lowPart);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NameValue that = (NameValue) o;
+
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high * 31 + low);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
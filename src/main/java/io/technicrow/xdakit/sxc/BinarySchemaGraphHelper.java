@@ -5,6 +5,10 @@ import io.technicrow.xdakit.XDAException;
 import io.technicrow.xdakit.constant.DataType;
 import io.technicrow.xdakit.constant.SchemaType;
 
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -27,13 +31,13 @@ public final class BinarySchemaGraphHelper {
         if (bsgFile == null) {
             return null;
         }
-        try (InputStream bsg = bsgFile) {
+        try (InputStream bsg = new BufferedInputStream(bsgFile)) {
             byte[] header = new byte[FILE_HEADER_LENGTH];
-            if (bsg.read(header) != FILE_HEADER_LENGTH) {
+            if (IOUtils.read(bsg, header) != FILE_HEADER_LENGTH) {
                 throw new XDAException("Cannot read BSG header");
             }
             byte[] checkInformation = new byte[CHECK_INFORMATION_LENGTH];
-            if (bsg.read(checkInformation) != CHECK_INFORMATION_LENGTH) {
+            if (IOUtils.read(bsg, checkInformation) != CHECK_INFORMATION_LENGTH) {
                 throw new XDAException("Cannot read BSG checkInformation");
             }
             int nodeCount = Utils.readInt(bsg);
@@ -44,22 +48,20 @@ public final class BinarySchemaGraphHelper {
                 count++;
             }
             List<Integer> elements = new LinkedList<>();
-            while (true) {
-                byte[] b = new byte[4];
-                if (bsg.read(b) != 4) {
-                    break;
-                }
-                int element = ((b[3] << 24) & 0xff000000) + ((b[2] << 16) & 0x00ff0000)
-                        + ((b[1] << 8) & 0x0000ff00) + (b[0] & 0x000000ff);
-                elements.add(element);
+            byte[] b = new byte[4];
+            while (IOUtils.read(bsg, b) == 4) {
+                elements.add((b[3] << 24) | ((b[2] & 0xff) << 16) | ((b[1] & 0xff) << 8) | (b[0] & 0xff));
             }
             return new SchemaGraph(header, checkInformation, nodeCount, schemaNodes, elements);
         }
     }
 
+    /**
+     * Read a node from the stream, consuming exactly the bytes of that node
+     */
     public static SchemaNode readNode(InputStream bsg) throws IOException, XDAException {
         SchemaNode.SchemaNodeBuilder builder = new SchemaNode.SchemaNodeBuilder();
-        int type = bsg.read();
+        int type = readUnsignedByte(bsg);
         SchemaType schemaType = SchemaType.ofType((byte) type);
         if (schemaType == null) {
             throw new XDAException("Invalid schema type: " + type);
@@ -68,13 +70,10 @@ public final class BinarySchemaGraphHelper {
         if (SchemaType.ATTRIBUTE.equals(schemaType) || SchemaType.ELEMENT.equals(schemaType)) {
             int nameLength = Utils.readInt(bsg);
             byte[] nameBuf = new byte[nameLength * 2];
-            for (int i = 0; i < nameLength; i++) {
-                nameBuf[i * 2] = (byte) bsg.read();
-                nameBuf[i * 2 + 1] = (byte) bsg.read();
-            }
+            IOUtils.readFully(bsg, nameBuf);
             builder.schemaNodeNameLength(nameLength);
             builder.schemaNodeName(new String(nameBuf, StandardCharsets.UTF_16LE));
-            type = bsg.read();
+            type = readUnsignedByte(bsg);
             DataType dataType = DataType.ofType((byte) type);
             if (dataType == null) {
                 throw new XDAException("Invalid data type: " + type);
@@ -85,10 +84,10 @@ public final class BinarySchemaGraphHelper {
             builder.minOccurs(Utils.readInt(bsg));
             builder.maxOccurs(Utils.readInt(bsg));
         } else {
-            builder.attributeRequired(bsg.read() != 0);
+            builder.attributeRequired(readUnsignedByte(bsg) != 0);
         }
         if (SchemaType.ELEMENT.equals(schemaType)) {
-            builder.mixed(bsg.read() != 0);
+            builder.mixed(readUnsignedByte(bsg) != 0);
             int attributeCount = Utils.readInt(bsg);
             builder.attributeCount(attributeCount);
             if (attributeCount > 0) {
@@ -112,4 +111,12 @@ public final class BinarySchemaGraphHelper {
         }
         return builder.build();
     }
+
+    private static int readUnsignedByte(InputStream bsg) throws IOException {
+        int b = bsg.read();
+        if (b < 0) {
+            throw new EOFException("Cannot read byte from input stream");
+        }
+        return b;
+    }
 }
@@ -0,0 +1,163 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.XDAOpenOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+
+import static io.technicrow.xdakit.TestArchives.assertContents;
+import static io.technicrow.xdakit.TestArchives.sampleFiles;
+import static io.technicrow.xdakit.TestArchives.toArray;
+import static io.technicrow.xdakit.TestArchives.transfer;
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class EcsCodecsTests {
+
+    private static final byte[] TEST_MARKS = {0x40, 0x42};
+
+    @TempDir
+    File tempDir;
+
+    private final EcsCodec[] previous = new EcsCodec[TEST_MARKS.length];
+
+    @BeforeEach
+    void saveCodecs() {
+        for (int i = 0; i < TEST_MARKS.length; i++) {
+            previous[i] = EcsCodecs.get(TEST_MARKS[i]);
+        }
+    }
+
+    /**
+     * The registry is shared by the whole JVM, so later tests must not see the codecs registered here
+     */
+    @AfterEach
+    void restoreCodecs() {
+        for (int i = 0; i < TEST_MARKS.length; i++) {
+            EcsCodecs.restore(TEST_MARKS[i], previous[i]);
+        }
+    }
+
+    @Test
+    void testEcsCodecs() throws Exception {
+        EcsCodec xor = new EcsCodec() {
+            @Override
+            public byte getMark() {
+                return 0x40;
+            }
+
+            @Override
+            public InputStream decode(InputStream encoded) {
+                return new FilterInputStream(encoded) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        return (b < 0) ? b : b ^ 0x5a;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        for (int i = 0; i < n; i++) {
+                            b[off + i] ^= 0x5a;
+                        }
+                        return n;
+                    }
+                };
+            }
+
+            @Override
+            public OutputStream encode(OutputStream target, int level) {
+                return new FilterOutputStream(target) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b ^ 0x5a);
+                    }
+                };
+            }
+        };
+        Assertions.assertNull(EcsCodecs.register(xor));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> XDADocumentWriter.builder().ecs((byte) 0x41));
+
+        Map<String, byte[]> files = sampleFiles(30);
+        byte[][] chains = {{}, {0x40}, {0x40, 0x02}, {0x02, 0x40}};
+        File archive = writeArchive(new File(tempDir, "codecs.xda"), files, chains);
+        assertContents(archive, files);
+
+        // Stored bodies are views of the mapping
+        try (XDADocument document = XDADocument.open(archive, XDAOpenOption.MEMORY_MAPPED)) {
+            ByteBuffer stored = document.getFileBuffer("Pages/Page_0/Content.xml");
+            Assertions.assertTrue(stored.isDirect());
+            Assertions.assertTrue(stored.isReadOnly());
+            Assertions.assertFalse(document.getFileBuffer("Pages/Page_1/Content.xml").isDirect());
+        }
+        try (XDADocument document = XDADocument.open(archive)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                Assertions.assertArrayEquals(file.getValue(), toArray(document.getFileBuffer(file.getKey())));
+                Assertions.assertArrayEquals(file.getValue(), transfer(document, file.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void testProviders() {
+        EcsCodec deflate = codec(EcsCodecs.DEFLATE);
+        EcsCodec first = codec((byte) 0x42);
+        EcsCodec second = codec((byte) 0x42);
+        Iterator<Object> providers = Arrays.<Object>asList(deflate, new ServiceConfigurationError("Broken provider"),
+                first, second, codec((byte) 0)).iterator();
+        int failures = EcsCodecs.getProviderFailures().size();
+        EcsCodecs.loadProviders(new Iterator<EcsCodec>() {
+            @Override
+            public boolean hasNext() {
+                return providers.hasNext();
+            }
+
+            @Override
+            public EcsCodec next() {
+                Object provider = providers.next();
+                if (provider instanceof Error) {
+                    throw (Error) provider;
+                }
+                return (EcsCodec) provider;
+            }
+        });
+        // Providers never replace a built-in or earlier codec, and every skipped one is reported
+        Assertions.assertTrue(EcsCodecs.isBuiltIn(EcsCodecs.DEFLATE));
+        Assertions.assertSame(first, EcsCodecs.get((byte) 0x42));
+        List<Throwable> skipped = EcsCodecs.getProviderFailures().subList(failures, failures + 4);
+        Assertions.assertEquals(failures + 4, EcsCodecs.getProviderFailures().size());
+        Assertions.assertTrue(skipped.get(0) instanceof IllegalStateException);
+        Assertions.assertTrue(skipped.get(1) instanceof ServiceConfigurationError);
+        Assertions.assertTrue(skipped.get(2) instanceof IllegalStateException);
+        Assertions.assertTrue(skipped.get(3) instanceof IllegalArgumentException);
+    }
+
+    private static EcsCodec codec(byte mark) {
+        return new EcsCodec() {
+            @Override
+            public byte getMark() {
+                return mark;
+            }
+
+            @Override
+            public InputStream decode(InputStream encoded) {
+                return encoded;
+            }
+
+            @Override
+            public OutputStream encode(OutputStream target, int level) {
+                return target;
+            }
+        };
+    }
+}
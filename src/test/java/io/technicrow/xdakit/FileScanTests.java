@@ -0,0 +1,238 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.FileStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.technicrow.xdakit.TestArchives.sampleFiles;
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class FileScanTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testScan() throws Exception {
+        Map<String, byte[]> files = sampleFiles(60);
+        byte[][] chains = {{}, {0x02}, {0x10}};
+        File archive = writeArchive(new File(tempDir, "scan.xda"), files, chains);
+        try (XDADocument document = XDADocument.open(archive)) {
+            // One file at a time, with a bound below most file sizes
+            List<String> received = new ArrayList<>();
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            document.scan().parallelism(3).maxInFlightBytes(1000).subscribe(new FileScan.Subscriber<FileStream>() {
+                private FileScan.Subscription subscription;
+
+                @Override
+                public void onSubscribe(FileScan.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(FileStream item) {
+                    try (InputStream in = item.getInputStream()) {
+                        Assertions.assertArrayEquals(files.get(item.getPath()), IOUtils.toByteArray(in));
+                    } catch (Throwable e) {
+                        done.completeExceptionally(e);
+                    }
+                    received.add(item.getPath());
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    done.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    done.complete(null);
+                }
+            });
+            done.get(30, TimeUnit.SECONDS);
+            // Written in insertion order, so stored in insertion order
+            Assertions.assertEquals(new ArrayList<>(files.keySet()), received);
+
+            List<String> cancelled = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<Throwable> failed = new CompletableFuture<>();
+            document.scan().subscribe(new FileScan.Subscriber<FileStream>() {
+                private FileScan.Subscription subscription;
+
+                @Override
+                public void onSubscribe(FileScan.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(FileStream item) {
+                    cancelled.add(item.getPath());
+                    if (cancelled.size() == 3) {
+                        subscription.cancel();
+                        failed.complete(null);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    failed.complete(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    failed.complete(new AssertionError("Completed after cancel"));
+                }
+            });
+            Assertions.assertNull(failed.get(30, TimeUnit.SECONDS));
+            Assertions.assertEquals(3, cancelled.size());
+        }
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        Map<String, byte[]> files = sampleFiles(60);
+        File archive = writeArchive(new File(tempDir, "backpressure.xda"), files);
+        File deflated = writeArchive(new File(tempDir, "backpressure-deflated.xda"), files, new byte[]{0x02});
+        List<byte[]> contents = new ArrayList<>(files.values());
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try (XDADocument document = XDADocument.open(archive);
+             XDADocument deflatedDocument = XDADocument.open(deflated)) {
+            // Without demand only the prefetch is read
+            CountingExecutor executor = new CountingExecutor(pool);
+            StalledSubscriber subscriber = new StalledSubscriber();
+            document.scan().parallelism(3).executor(executor).subscribe(subscriber);
+            executor.awaitIdle();
+            Assertions.assertEquals(3, executor.started.get());
+            Assertions.assertTrue(executor.maxRunning.get() <= 3);
+            Assertions.assertTrue(subscriber.received.isEmpty());
+
+            // Each delivered file lets one more be read
+            subscriber.subscription.request(1);
+            executor.awaitIdle();
+            Assertions.assertEquals(1, subscriber.received.size());
+            Assertions.assertEquals(4, executor.started.get());
+            subscriber.subscription.cancel();
+
+            // The byte bound stops reading before the prefetch does: every file but the last one started fits in it
+            for (long maxInFlightBytes : new long[]{1, 1000, 4000}) {
+                executor = new CountingExecutor(pool);
+                subscriber = new StalledSubscriber();
+                document.scan().parallelism(5).maxInFlightBytes(maxInFlightBytes).executor(executor).subscribe(subscriber);
+                executor.awaitIdle();
+                int started = executor.started.get();
+                long inFlight = 0;
+                for (int i = 0; i < started - 1; i++) {
+                    inFlight += contents.get(i).length;
+                }
+                Assertions.assertTrue(started >= 1 && started <= 5, "Started " + started);
+                Assertions.assertTrue(inFlight < maxInFlightBytes, "In flight " + inFlight);
+                Assertions.assertTrue(started == 5 || inFlight + contents.get(started - 1).length >= maxInFlightBytes,
+                        "Stopped early at " + started);
+                Assertions.assertTrue(subscriber.received.isEmpty());
+                subscriber.subscription.cancel();
+            }
+
+            // Deflated files are dispatched against their stored size, but once decoded they count in full
+            for (long maxInFlightBytes : new long[]{1000, 4000}) {
+                executor = new CountingExecutor(pool);
+                subscriber = new StalledSubscriber();
+                deflatedDocument.scan().parallelism(5).maxInFlightBytes(maxInFlightBytes).executor(executor)
+                        .subscribe(subscriber);
+                executor.awaitIdle();
+                int started = executor.started.get();
+                long decoded = 0;
+                for (int i = 0; i < started; i++) {
+                    decoded += contents.get(i).length;
+                }
+                Assertions.assertTrue(started >= 1 && started <= 5, "Started " + started);
+                Assertions.assertTrue(started == 5 || decoded >= maxInFlightBytes, "Stopped early at " + started);
+                subscriber.subscription.cancel();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs tasks on a pool, counting those started and the most running at once
+     */
+    private static final class CountingExecutor implements Executor {
+
+        private final Executor delegate;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger finished = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        private CountingExecutor(Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            started.incrementAndGet();
+            delegate.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    task.run();
+                } finally {
+                    running.decrementAndGet();
+                    finished.incrementAndGet();
+                }
+            });
+        }
+
+        /**
+         * Wait until every started task has finished. A finishing task dispatches its successors before it counts
+         * as finished, so nothing starts afterwards until the subscriber asks for more.
+         */
+        private void awaitIdle() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (finished.get() != started.get()) {
+                Assertions.assertTrue(System.nanoTime() < deadline, "Scan did not settle");
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static final class StalledSubscriber implements FileScan.Subscriber<FileStream> {
+
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private volatile FileScan.Subscription subscription;
+
+        @Override
+        public void onSubscribe(FileScan.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(FileStream item) {
+            received.add(item.getPath());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            Assertions.fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            Assertions.fail("Completed without demand");
+        }
+    }
+}
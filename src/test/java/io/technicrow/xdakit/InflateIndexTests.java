@@ -0,0 +1,80 @@
+package io.technicrow.xdakit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+class InflateIndexTests {
+
+    @Test
+    void testDecodeAndResume() throws IOException {
+        byte[] data = sampleData(3 << 20);
+        for (int level : new int[]{0, 1, 6, 9}) {
+            byte[] deflated = rawDeflate(data, level);
+            InflateIndex index = InflateIndex.build(new ByteArrayInputStream(deflated), 256 * 1024);
+            Assertions.assertEquals(data.length, index.getLength());
+            Assertions.assertTrue(index.getCheckpointCount() > 4, "Level " + level);
+            // Every checkpoint but the first holds a full window
+            Assertions.assertEquals((index.getCheckpointCount() - 1) * 32L * 1024, index.getWindowBytes());
+            for (int checkpoint = 0; checkpoint < index.getCheckpointCount(); checkpoint++) {
+                int skip = (int) (index.bitPosition(checkpoint) / 8);
+                DeflateDecoder decoder = index.resume(checkpoint,
+                        new ByteArrayInputStream(deflated, skip, deflated.length - skip));
+                int from = (int) index.outputPosition(checkpoint);
+                byte[] decoded = readAll(decoder, data.length - from);
+                Assertions.assertArrayEquals(Arrays.copyOfRange(data, from, data.length), decoded,
+                        "Level " + level + ", checkpoint " + checkpoint);
+            }
+            Assertions.assertEquals(0, index.checkpointBefore(0));
+            Assertions.assertEquals(index.getCheckpointCount() - 1, index.checkpointBefore(data.length));
+        }
+    }
+
+    @Test
+    void testCorruptData() {
+        byte[] deflated = rawDeflate(sampleData(100000), 6);
+        byte[] truncated = Arrays.copyOf(deflated, deflated.length / 2);
+        Assertions.assertThrows(IOException.class, () -> InflateIndex.build(new ByteArrayInputStream(truncated), 1024));
+    }
+
+    private static byte[] readAll(DeflateDecoder decoder, int expected) throws IOException {
+        byte[] result = new byte[expected + 1];
+        int total = 0;
+        int n;
+        while ((n = decoder.read(result, total, Math.min(7000, result.length - total))) != -1) {
+            total += n;
+        }
+        Assertions.assertTrue(decoder.isFinished());
+        return Arrays.copyOf(result, total);
+    }
+
+    static byte[] sampleData(int length) {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // Repetitive enough for long matches, random enough for dynamic blocks
+            data[i] = (i > 100 && random.nextInt(4) != 0) ? data[i - 1 - random.nextInt(100)] : (byte) random.nextInt(64);
+        }
+        return data;
+    }
+
+    private static byte[] rawDeflate(byte[] data, int level) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(buffer, deflater)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return buffer.toByteArray();
+    }
+}
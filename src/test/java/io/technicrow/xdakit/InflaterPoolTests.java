@@ -0,0 +1,55 @@
+package io.technicrow.xdakit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+class InflaterPoolTests {
+
+    @Test
+    void testReuse() throws IOException {
+        InflaterPool pool = new InflaterPool(2);
+        byte[] data = new byte[20000];
+        new Random(3).nextBytes(data);
+        byte[] deflated = deflate(data);
+
+        InputStream first = pool.newInputStream(new ByteArrayInputStream(deflated));
+        InputStream second = pool.newInputStream(new ByteArrayInputStream(deflated));
+        InputStream third = pool.newInputStream(new ByteArrayInputStream(deflated));
+        // A half-read stream returns a reset inflater
+        Assertions.assertEquals(100, first.read(new byte[100]));
+        first.close();
+        first.close();
+        Assertions.assertThrows(IOException.class, first::read);
+        Assertions.assertArrayEquals(data, IOUtils.toByteArray(second));
+        second.close();
+        third.close();
+        // The third inflater did not fit and was ended
+        Assertions.assertEquals(2, pool.idleCount());
+
+        Inflater reused = pool.acquire();
+        pool.release(reused);
+        for (int i = 0; i < 3; i++) {
+            try (InputStream in = pool.newInputStream(new ByteArrayInputStream(deflated))) {
+                Assertions.assertArrayEquals(data, IOUtils.toByteArray(in));
+            }
+        }
+        Assertions.assertEquals(2, pool.idleCount());
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(baos)) {
+            out.write(data);
+        }
+        return baos.toByteArray();
+    }
+}
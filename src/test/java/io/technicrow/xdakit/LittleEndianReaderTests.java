@@ -0,0 +1,90 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.NameValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+class LittleEndianReaderTests {
+
+    private static final int RECORD_LENGTH = 1 + 4 + 16 + 8;
+    private static final int RECORD_COUNT = 20000;
+
+    @Test
+    void testReadFields() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 0x81).putShort((short) 0xfffe).putInt(0x89abcdef).putLong(-2L)
+                .putLong(0x0102030405060708L).putLong(0x1112131415161718L)
+                .put("Doc.xml".getBytes(StandardCharsets.UTF_8)).put((byte) 0);
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+
+        for (LittleEndianReader reader : new LittleEndianReader[]{LittleEndianReader.of(buffer),
+                LittleEndianReader.of(new ByteArrayInputStream(bytes)),
+                LittleEndianReader.ofUnbuffered(new ByteArrayInputStream(bytes))}) {
+            Assertions.assertEquals(0x81, reader.readUnsignedByte());
+            Assertions.assertEquals(0xfffeL, reader.readByBitsParam((byte) 2));
+            Assertions.assertEquals(0x89abcdefL, reader.readByBitsParam((byte) 4));
+            Assertions.assertEquals(-2L, reader.readByBitsParam((byte) 8));
+            Assertions.assertEquals(new NameValue(0x1112131415161718L, 0x0102030405060708L), reader.readNameValue());
+            Assertions.assertEquals("Doc.xml", reader.readString());
+            Assertions.assertFalse(reader.hasRemaining(1));
+            Assertions.assertThrows(EOFException.class, reader::readByte);
+        }
+        Assertions.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void testUnbufferedDoesNotReadAhead() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{1, 0, 0, 0, 2, 0, 0, 0});
+        Assertions.assertEquals(1, LittleEndianReader.ofUnbuffered(in).readInt());
+        Assertions.assertEquals(4, in.available());
+    }
+
+    @Test
+    void testFieldsDoNotAllocate() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_LENGTH * RECORD_COUNT);
+        byte[] bytes = buffer.array();
+        LittleEndianReader reader = LittleEndianReader.create();
+        // Warm up so that class loading and JIT do not count
+        for (int i = 0; i < 5; i++) {
+            readFields(reader.reset(new ByteArrayInputStream(bytes)));
+            readFields(reader.reset(buffer));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long sum = readFields(reader.reset(in));
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assertions.assertEquals(0, sum);
+        // Far less than one byte per field; the old readers allocated an array for each
+        Assertions.assertTrue(allocated < 4096, "Allocated " + allocated + " bytes");
+    }
+
+    private static long readFields(LittleEndianReader reader) throws IOException {
+        long sum = 0;
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            sum += reader.readByte();
+            sum += reader.readInt();
+            reader.skipFully(16);
+            sum += reader.readByBitsParam((byte) 8);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,49 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.model.NameValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+class NameValueMapTests {
+
+    @Test
+    void testPutAndGet() {
+        Random random = new Random(7);
+        Map<NameValue, String> expected = new HashMap<>();
+        NameValueMap map = new NameValueMap();
+        for (int i = 0; i < 5000; i++) {
+            // Few distinct highs so that many keys share a half
+            NameValue nameValue = new NameValue(random.nextInt(4), random.nextInt(2000));
+            String path = "File_" + i;
+            map.put(nameValue, path);
+            expected.put(nameValue, path);
+        }
+        Assertions.assertEquals(expected.size(), map.size());
+        for (Map.Entry<NameValue, String> entry : expected.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assertions.assertNull(map.get(new NameValue(5, 0)));
+        Assertions.assertNull(map.get(0, 2001));
+    }
+
+    @Test
+    void testMatchesBigInteger() throws Exception {
+        byte[] raw = new byte[16];
+        new Random(11).nextBytes(raw);
+        raw[15] = (byte) 0xa5;
+        BigInteger expected = Utils.readBigInteger(new ByteArrayInputStream(raw), 16);
+        long low = 0;
+        long high = 0;
+        for (int i = 7; i >= 0; i--) {
+            low = (low << 8) | (raw[i] & 0xff);
+            high = (high << 8) | (raw[i + 8] & 0xff);
+        }
+        Assertions.assertEquals(expected, new NameValue(high, low).toBigInteger());
+    }
+}
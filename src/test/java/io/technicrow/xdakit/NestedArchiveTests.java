@@ -0,0 +1,59 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.XDAOpenOption;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static io.technicrow.xdakit.TestArchives.sampleFiles;
+import static io.technicrow.xdakit.TestArchives.toArray;
+import static io.technicrow.xdakit.TestArchives.transfer;
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class NestedArchiveTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testNestedArchives() throws Exception {
+        Map<String, byte[]> files = sampleFiles(30);
+        File inner = writeArchive(new File(tempDir, "inner.xda"), XDADocumentWriter.builder().ecs((byte) 0x02), files);
+        byte[] innerData = Files.readAllBytes(inner.toPath());
+        File outer = new File(tempDir, "outer.xda");
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().build(outer)) {
+            writer.addFile("stored.xda", innerData);
+            writer.addFile("deflated.xda", innerData, (byte) 0x02);
+        }
+        List<String> expected = new ArrayList<>(files.keySet());
+        Collections.sort(expected);
+        for (XDAOpenOption[] options : new XDAOpenOption[][]{{}, {XDAOpenOption.MEMORY_MAPPED}}) {
+            try (XDADocument document = XDADocument.open(outer, options)) {
+                for (String member : new String[]{"stored.xda", "deflated.xda", "deflated.xda"}) {
+                    try (XDADocument nested = document.openNested(member)) {
+                        Assertions.assertEquals(expected, nested.listAllFiles());
+                        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                            try (InputStream in = nested.getFile(file.getKey()).getInputStream()) {
+                                Assertions.assertArrayEquals(file.getValue(), IOUtils.toByteArray(in));
+                            }
+                            Assertions.assertArrayEquals(file.getValue(), transfer(nested, file.getKey()));
+                        }
+                    }
+                }
+                // Closing a nested document leaves the outer one usable
+                Assertions.assertArrayEquals(innerData, toArray(document.getFileBuffer("stored.xda")));
+                Assertions.assertThrows(FileNotFoundException.class, () -> document.openNested("missing.xda"));
+            }
+        }
+    }
+}
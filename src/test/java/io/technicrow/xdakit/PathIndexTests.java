@@ -0,0 +1,115 @@
+package io.technicrow.xdakit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+class PathIndexTests {
+
+    @Test
+    void testLookupAndOrder() {
+        Random random = new Random(42);
+        Map<String, Long> expected = new HashMap<>();
+        PathIndex.Builder builder = PathIndex.builder();
+        String[] dirs = {"Pages/Page_1/", "Pages/Page_12/", "Res/", "Res/字体/", ""};
+        for (int i = 0; i < 1000; i++) {
+            String path = dirs[random.nextInt(dirs.length)] + "File_" + random.nextInt(400) + ".xml";
+            if (random.nextInt(10) == 0) {
+                builder.add(path);
+                expected.putIfAbsent(path, PathIndex.NO_OFFSET);
+            } else {
+                builder.put(path, i);
+                expected.put(path, (long) i);
+            }
+        }
+        PathIndex index = builder.build();
+
+        List<String> sorted = new ArrayList<>(expected.keySet());
+        sorted.sort(Comparator.comparing(s -> new String(s.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1)));
+        Assertions.assertEquals(sorted, new ArrayList<>(index.paths()));
+        Assertions.assertEquals(expected.size(), index.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            String path = sorted.get(i);
+            Assertions.assertEquals(i, index.indexOf(path));
+            Assertions.assertEquals(path, index.pathAt(i));
+            Assertions.assertEquals(expected.get(path).longValue(), index.offsetOf(path));
+        }
+        Assertions.assertEquals(-1, index.indexOf("Pages/Page_1/File_9999.xml"));
+        Assertions.assertEquals(-1, index.indexOf(""));
+        Assertions.assertEquals(-1, index.indexOf("zzz"));
+        Assertions.assertEquals(PathIndex.NO_OFFSET, index.offsetOf("Missing"));
+    }
+
+    @Test
+    void testQueries() {
+        Random random = new Random(7);
+        PathIndex.Builder builder = PathIndex.builder();
+        String[] dirs = {"Pages/Page_1/", "Pages/Page_12/", "Pages/Page_12/Res/", "Res/", "Res/字体/", "", "Res.d/"};
+        for (int i = 0; i < 2000; i++) {
+            String path = dirs[random.nextInt(dirs.length)] + "File_" + random.nextInt(300)
+                    + (random.nextBoolean() ? ".xml" : ".png");
+            if (random.nextInt(5) == 0) {
+                builder.add(path);
+            } else {
+                builder.put(path, i);
+            }
+        }
+        builder.put("Pages", 1).put("Pages.xml", 2);
+        builder.add("Dead/File.xml");
+        PathIndex index = builder.build();
+        List<String> all = new ArrayList<>(index.livePaths());
+
+        for (String prefix : new String[]{"", "Pages", "Pages/", "Pages/Page_1", "Pages/Page_1/", "Res/字", "Dead/", "zzz"}) {
+            List<String> expected = new ArrayList<>();
+            for (String path : all) {
+                if (path.startsWith(prefix)) {
+                    expected.add(path);
+                }
+            }
+            Assertions.assertEquals(expected, index.livePathsWithPrefix(prefix), prefix);
+        }
+
+        for (String directory : new String[]{"", "Pages/", "Pages/Page_12/", "Res/"}) {
+            Set<String> expected = new LinkedHashSet<>();
+            for (String path : all) {
+                if (path.startsWith(directory)) {
+                    int slash = path.indexOf('/', directory.length());
+                    expected.add((slash < 0) ? path.substring(directory.length()) : path.substring(directory.length(), slash + 1));
+                }
+            }
+            Assertions.assertEquals(new ArrayList<>(expected), index.liveChildren(directory), directory);
+        }
+        Assertions.assertEquals(Arrays.asList("Page_1/", "Page_12/"), index.liveChildren("Pages/"));
+        Assertions.assertEquals(Collections.emptyList(), index.liveChildren("Dead/"));
+        Assertions.assertEquals(Collections.emptyList(), index.liveChildren("Missing/"));
+
+        for (String glob : new String[]{"**/*.xml", "Pages/*/File_1?.png", "Pages/Page_12/**", "*", "Res/字体/*",
+                "{Pages,Res}/*/File_2*", "Pages/{Page_1/File_1,Page_12/Res/File_2}*", "Pages.xml", "Pages",
+                "Pages\\.xml", "Dead/*", "*/*/*/*"}) {
+            Pattern pattern = Globs.compile(glob);
+            Assertions.assertEquals(filter(all, path -> pattern.matcher(path).matches()), Globs.select(index, glob), glob);
+        }
+    }
+
+    private static List<String> filter(List<String> paths, Predicate<String> predicate) {
+        List<String> result = new ArrayList<>();
+        for (String path : paths) {
+            if (predicate.test(path)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void testEmpty() {
+        PathIndex index = PathIndex.builder().build();
+        Assertions.assertEquals(0, index.size());
+        Assertions.assertEquals(-1, index.indexOf("Doc.xml"));
+        Assertions.assertTrue(index.paths().isEmpty());
+    }
+}
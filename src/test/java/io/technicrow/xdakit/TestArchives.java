@@ -0,0 +1,88 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.XDAOpenOption;
+import io.technicrow.xdakit.model.FileStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.*;
+
+/**
+ * Archive fixtures shared by the test classes
+ */
+final class TestArchives {
+
+    private TestArchives() {
+    }
+
+    static Map<String, byte[]> sampleFiles(int count) {
+        Random random = new Random(count);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[random.nextInt(3000)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) ('a' + random.nextInt(4));
+            }
+            files.put("Pages/Page_" + i + "/Content.xml", data);
+        }
+        return files;
+    }
+
+    /**
+     * Write {@code files} in order, encoding each with the next of {@code chains} in turn, or with the builder's
+     * default ECS chain if none are given
+     */
+    static File writeArchive(File target, XDADocumentWriter.Builder builder, Map<String, byte[]> files,
+                             byte[]... chains) throws Exception {
+        try (XDADocumentWriter writer = builder.build(target)) {
+            int i = 0;
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                if (chains.length == 0) {
+                    writer.addFile(file.getKey(), file.getValue());
+                } else {
+                    writer.addFile(file.getKey(), file.getValue(), chains[i++ % chains.length]);
+                }
+            }
+        }
+        return target;
+    }
+
+    static File writeArchive(File target, Map<String, byte[]> files, byte[]... chains) throws Exception {
+        return writeArchive(target, XDADocumentWriter.builder(), files, chains);
+    }
+
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    static byte[] transfer(XDADocument document, String path) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = document.transferFile(path, Channels.newChannel(out));
+        Assertions.assertEquals(out.size(), length);
+        return out.toByteArray();
+    }
+
+    static void assertContents(File archive, Map<String, byte[]> files) throws Exception {
+        try (XDADocument document = XDADocument.open(archive, XDAOpenOption.MEMORY_MAPPED)) {
+            List<String> expected = new ArrayList<>(files.keySet());
+            Collections.sort(expected);
+            Assertions.assertEquals(expected, document.listAllFiles());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                FileStream stream = document.getFile(file.getKey());
+                Assertions.assertNotNull(stream);
+                try (InputStream in = stream.getInputStream()) {
+                    Assertions.assertArrayEquals(file.getValue(), IOUtils.toByteArray(in), file.getKey());
+                }
+                Assertions.assertArrayEquals(file.getValue(), toArray(document.getFileBuffer(file.getKey())), file.getKey());
+                Assertions.assertArrayEquals(file.getValue(), transfer(document, file.getKey()), file.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.technicrow.xdakit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static io.technicrow.xdakit.TestArchives.assertContents;
+import static io.technicrow.xdakit.TestArchives.sampleFiles;
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class XDADocumentWriterTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testRoundTrip() throws Exception {
+        Map<String, byte[]> files = sampleFiles(300);
+        byte[][] chains = {{}, {0x02}, {0x10}, {0x02, 0x10}};
+        for (int bitsParam : new int[]{4, 8}) {
+            for (boolean compressTables : new boolean[]{false, true}) {
+                File archive = writeArchive(new File(tempDir, "out-" + bitsParam + "-" + compressTables + ".xda"),
+                        XDADocumentWriter.builder()
+                                .bitsParam(bitsParam)
+                                .compressNameTable(compressTables)
+                                .compressItemList(compressTables)
+                                .parallelism(3),
+                        files, chains);
+                assertContents(archive, files);
+            }
+        }
+    }
+
+    @Test
+    void testSmallBitsParam() throws Exception {
+        Map<String, byte[]> files = sampleFiles(20);
+        File archive = writeArchive(new File(tempDir, "small.xda"), XDADocumentWriter.builder().bitsParam(2).ecs((byte) 0x02),
+                files);
+        assertContents(archive, files);
+
+        File tooLarge = new File(tempDir, "too-large.xda");
+        XDADocumentWriter writer = XDADocumentWriter.builder().bitsParam(2).build(tooLarge);
+        writer.addFile("Big.bin", new byte[70000]);
+        Assertions.assertThrows(java.io.IOException.class, writer::close);
+    }
+
+    @Test
+    void testAppend() throws Exception {
+        Map<String, byte[]> files = sampleFiles(50);
+        File archive = writeArchive(new File(tempDir, "append.xda"), XDADocumentWriter.builder().compressNameTable(true),
+                files, new byte[]{0x02});
+        long originalLength = archive.length();
+
+        byte[] replaced = "<Page>Replaced</Page>".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        byte[] added = "<Doc/>".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        // bitsParam is taken from the archive
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().bitsParam(8).compressItemList(true).append(archive)) {
+            writer.replaceFile("Pages/Page_3/Content.xml", replaced, (byte) 0x10);
+            writer.addFile("Doc.xml", added);
+        }
+        files.put("Pages/Page_3/Content.xml", replaced);
+        files.put("Doc.xml", added);
+        Assertions.assertTrue(archive.length() - originalLength < 1000);
+        assertContents(archive, files);
+
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().append(archive)) {
+            writer.addFile("Pages/Page_3/Extra.xml", replaced);
+        }
+        files.put("Pages/Page_3/Extra.xml", replaced);
+        assertContents(archive, files);
+
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().build(new File(tempDir, "new.xda"))) {
+            Assertions.assertThrows(IllegalStateException.class, () -> writer.deleteFile("Doc.xml"));
+        }
+    }
+
+    @Test
+    void testFailedAppendIsRolledBack() throws Exception {
+        Map<String, byte[]> files = sampleFiles(5);
+        File archive = writeArchive(new File(tempDir, "rollback.xda"), XDADocumentWriter.builder().bitsParam(2), files);
+        long length = archive.length();
+        XDADocumentWriter writer = XDADocumentWriter.builder().append(archive);
+        writer.addFile("Big.bin", new byte[70000]);
+        Assertions.assertThrows(java.io.IOException.class, writer::close);
+        Assertions.assertEquals(length, archive.length());
+        assertContents(archive, files);
+    }
+
+    @Test
+    void testCompact() throws Exception {
+        Map<String, byte[]> files = sampleFiles(40);
+        File archive = writeArchive(new File(tempDir, "fragmented.xda"), XDADocumentWriter.builder().ecs((byte) 0x02), files);
+        Map<String, byte[]> expected = new TreeMap<>(files);
+        for (int round = 0; round < 5; round++) {
+            try (XDADocumentWriter writer = XDADocumentWriter.builder().append(archive)) {
+                String replaced = "Pages/Page_" + round + "/Content.xml";
+                byte[] data = files.get("Pages/Page_" + (round + 10) + "/Content.xml");
+                writer.replaceFile(replaced, data, (byte) 0x10);
+                expected.put(replaced, data);
+                String deleted = "Pages/Page_" + (round + 20) + "/Content.xml";
+                writer.deleteFile(deleted);
+                expected.remove(deleted);
+            }
+        }
+
+        File compacted = new File(tempDir, "compacted.xda");
+        try (XDADocument document = XDADocument.open(archive)) {
+            Assertions.assertEquals(6, document.getEntryCount());
+            document.compactTo(compacted);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> document.compactTo(archive));
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> document.compactTo(new File(tempDir, "./fragmented.xda")));
+            Assertions.assertEquals(6, document.getEntryCount());
+            Assertions.assertTrue(document.validate());
+        }
+        Assertions.assertTrue(compacted.length() < archive.length());
+        assertContents(compacted, expected);
+        try (XDADocument document = XDADocument.open(compacted)) {
+            Assertions.assertEquals(1, document.getEntryCount());
+        }
+    }
+
+    @Test
+    void testInvalidArguments() throws Exception {
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().build(new File(tempDir, "invalid.xda"))) {
+            writer.addFile("Doc.xml", new byte[1]);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> writer.addFile("Doc.xml", new byte[1]));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> writer.addFile("Bad.xml", new byte[1], (byte) 0x04));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> writer.addFile("", new byte[1]));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> XDADocumentWriter.builder().bitsParam(3));
+    }
+}
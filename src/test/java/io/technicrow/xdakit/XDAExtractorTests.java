@@ -0,0 +1,142 @@
+package io.technicrow.xdakit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.technicrow.xdakit.TestArchives.sampleFiles;
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class XDAExtractorTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testExtractAll() throws Exception {
+        Map<String, byte[]> files = sampleFiles(80);
+        byte[][] chains = {{}, {0x02}, {0x10}};
+        File archive = writeArchive(new File(tempDir, "extract.xda"), files, chains);
+        Path target = new File(tempDir, "extracted").toPath();
+        AtomicInteger notified = new AtomicInteger();
+        // A small budget makes some bodies stream from the archive
+        ExtractOptions options = ExtractOptions.builder()
+                .parallelism(3)
+                .maxInFlightBytes(2000)
+                .progress((path, extracted, total) -> {
+                    Assertions.assertEquals(files.size(), total);
+                    notified.incrementAndGet();
+                })
+                .build();
+        try (XDADocument document = XDADocument.open(archive)) {
+            Assertions.assertEquals(files.size(), document.extractAll(target, options));
+            Assertions.assertEquals(files.size(), notified.get());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                Assertions.assertArrayEquals(file.getValue(), Files.readAllBytes(target.resolve(file.getKey())));
+            }
+            Assertions.assertThrows(FileAlreadyExistsException.class, () -> document.extractAll(target));
+            Assertions.assertEquals(files.size(), document.extractAll(target, ExtractOptions.builder().overwrite(true).build()));
+        }
+
+        File escaping = new File(tempDir, "escaping.xda");
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().build(escaping)) {
+            writer.addFile("../outside.txt", new byte[1]);
+        }
+        try (XDADocument document = XDADocument.open(escaping)) {
+            Assertions.assertThrows(XDAException.class, () -> document.extractAll(target));
+        }
+        Assertions.assertFalse(new File(tempDir, "outside.txt").exists());
+    }
+
+    @Test
+    void testFailureWaitsForWorkers() throws Exception {
+        Map<String, byte[]> files = sampleFiles(10);
+        File archive = writeArchive(new File(tempDir, "failing.xda"), files);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        ExtractOptions options = ExtractOptions.builder()
+                .executor(new OneTaskExecutor(started))
+                .progress((path, extracted, total) -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.set(true);
+                })
+                .build();
+        Path target = new File(tempDir, "failing").toPath();
+        try (XDADocument document = XDADocument.open(archive)) {
+            XDAException e = Assertions.assertThrows(XDAException.class, () -> document.extractAll(target, options));
+            Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            // The worker already under way was waited for
+            Assertions.assertTrue(finished.get());
+        }
+    }
+
+    /**
+     * Runs the first task on its own thread, returning once it is under way, and rejects every later one
+     */
+    private static final class OneTaskExecutor extends AbstractExecutorService {
+
+        private final CountDownLatch started;
+        private boolean used;
+
+        private OneTaskExecutor(CountDownLatch started) {
+            this.started = started;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (used) {
+                throw new RejectedExecutionException("Only one task is accepted");
+            }
+            used = true;
+            new Thread(command).start();
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+}
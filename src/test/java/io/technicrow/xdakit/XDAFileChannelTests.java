@@ -0,0 +1,135 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.XDAOpenOption;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class XDAFileChannelTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testFileChannel() throws Exception {
+        byte[] large = InflateIndexTests.sampleData(2 << 20);
+        byte[][] chains = {{}, {0x02}, {0x10}, {0x02, 0x10}};
+        File archive = new File(tempDir, "channels.xda");
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().build(archive)) {
+            for (int i = 0; i < chains.length; i++) {
+                writer.addFile("Large_" + i + ".bin", large, chains[i]);
+            }
+        }
+        Random random = new Random(19);
+        for (XDAOpenOption mode : new XDAOpenOption[]{XDAOpenOption.LAZY, XDAOpenOption.MEMORY_MAPPED}) {
+            try (XDADocument document = XDADocument.open(archive, mode)) {
+                for (int i = 0; i < chains.length; i++) {
+                    try (SeekableByteChannel channel = document.openFileChannel("Large_" + i + ".bin")) {
+                        ByteBuffer buffer = ByteBuffer.allocate(5000);
+                        // Sequential from the start, then random positions, then the tail
+                        long[] positions = new long[8];
+                        for (int j = 1; j < positions.length - 1; j++) {
+                            positions[j] = random.nextInt(large.length);
+                        }
+                        positions[positions.length - 1] = large.length - 4096;
+                        for (long position : positions) {
+                            channel.position(position);
+                            buffer.clear();
+                            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                                // Fill as much as there is
+                            }
+                            int expected = (int) Math.min(buffer.capacity(), large.length - position);
+                            Assertions.assertEquals(expected, buffer.position());
+                            Assertions.assertArrayEquals(Arrays.copyOfRange(large, (int) position, (int) position + expected),
+                                    Arrays.copyOf(buffer.array(), expected), "Chain " + i + " at " + position);
+                            Assertions.assertEquals(position + expected, channel.position());
+                        }
+                        Assertions.assertEquals(large.length, channel.size());
+                        channel.position(large.length);
+                        Assertions.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+                        Assertions.assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testInflateIndexBudget() throws Exception {
+        byte[] large = InflateIndexTests.sampleData(2 << 20);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            files.put("Deflated_" + i + ".bin", large);
+        }
+        File archive = writeArchive(new File(tempDir, "indexes.xda"), files, new byte[]{0x02});
+        try (XDADocument document = XDADocument.open(archive)) {
+            FileRecord[] records = new FileRecord[files.size()];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = document.findRecord("Deflated_" + i + ".bin");
+            }
+
+            // Concurrent first seeks all get the one index that was built
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<InflateIndex>> builds = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    builds.add(pool.submit(() -> document.inflateIndex(records[0])));
+                }
+                for (Future<InflateIndex> build : builds) {
+                    Assertions.assertSame(builds.get(0).get(), build.get());
+                }
+            } finally {
+                pool.shutdown();
+            }
+            long oneIndex = document.inflateIndexBytes();
+            Assertions.assertEquals(document.inflateIndex(records[0]).getWindowBytes(), oneIndex);
+            Assertions.assertTrue(oneIndex > 0);
+
+            // Room for two: the least recently used index is evicted
+            document.setMaxInflateIndexBytes(2 * oneIndex);
+            document.inflateIndex(records[1]);
+            document.inflateIndex(records[0]);
+            document.inflateIndex(records[2]);
+            Assertions.assertTrue(document.hasInflateIndex(records[0]));
+            Assertions.assertFalse(document.hasInflateIndex(records[1]));
+            Assertions.assertTrue(document.hasInflateIndex(records[2]));
+            Assertions.assertEquals(2 * oneIndex, document.inflateIndexBytes());
+
+            // An index over the whole budget is still kept, alone
+            document.setMaxInflateIndexBytes(1);
+            document.inflateIndex(records[1]);
+            Assertions.assertFalse(document.hasInflateIndex(records[0]));
+            Assertions.assertTrue(document.hasInflateIndex(records[1]));
+            Assertions.assertFalse(document.hasInflateIndex(records[2]));
+            Assertions.assertEquals(oneIndex, document.inflateIndexBytes());
+
+            // Seeking an evicted member rebuilds its index
+            try (SeekableByteChannel channel = document.openFileChannel("Deflated_0.bin")) {
+                int position = 3 << 19;
+                ByteBuffer buffer = ByteBuffer.allocate(100);
+                channel.position(position);
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                    // Fill the buffer
+                }
+                Assertions.assertArrayEquals(Arrays.copyOfRange(large, position, position + 100), buffer.array());
+            }
+            Assertions.assertTrue(document.hasInflateIndex(records[0]));
+        }
+    }
+}
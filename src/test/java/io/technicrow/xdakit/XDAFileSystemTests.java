@@ -0,0 +1,84 @@
+package io.technicrow.xdakit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class XDAFileSystemTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testFileSystem() throws Exception {
+        Map<String, byte[]> files = TestArchives.sampleFiles(20);
+        files.put("Doc.xml", "<doc/>".getBytes());
+        File archive = new File(tempDir, "fs.xda");
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().ecs((byte) 0x02).build(archive)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                writer.addFile(file.getKey(), file.getValue());
+            }
+        }
+        try (FileSystem fs = FileSystems.newFileSystem(archive.toPath(), (ClassLoader) null)) {
+            Assertions.assertTrue(fs.isReadOnly());
+            Path root = fs.getPath("/");
+            Set<String> walked;
+            try (Stream<Path> walk = Files.walk(root)) {
+                walked = walk.filter(Files::isRegularFile)
+                        .map(path -> root.relativize(path).toString())
+                        .collect(Collectors.toSet());
+            }
+            Assertions.assertEquals(files.keySet(), walked);
+            Assertions.assertTrue(Files.isDirectory(fs.getPath("/Pages/Page_3")));
+            Assertions.assertFalse(Files.exists(fs.getPath("/Pages/Missing")));
+
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                Path path = fs.getPath(file.getKey());
+                Assertions.assertArrayEquals(file.getValue(), Files.readAllBytes(path));
+                Assertions.assertEquals(file.getValue().length, Files.size(path));
+            }
+            Path content = fs.getPath("/Pages/Page_7/Content.xml");
+            try (SeekableByteChannel channel = Files.newByteChannel(content)) {
+                ByteBuffer tail = ByteBuffer.allocate(10);
+                channel.position(channel.size() - 10);
+                channel.read(tail);
+                byte[] expected = files.get("Pages/Page_7/Content.xml");
+                Assertions.assertArrayEquals(Arrays.copyOfRange(expected, expected.length - 10, expected.length), tail.array());
+            }
+            Path copy = new File(tempDir, "Content.xml").toPath();
+            Files.copy(content, copy);
+            Assertions.assertArrayEquals(files.get("Pages/Page_7/Content.xml"), Files.readAllBytes(copy));
+
+            PathMatcher matcher = fs.getPathMatcher("glob:/Pages/Page_1*/*.xml");
+            Assertions.assertTrue(matcher.matches(fs.getPath("/Pages/Page_12/Content.xml")));
+            Assertions.assertFalse(matcher.matches(fs.getPath("/Pages/Page_2/Content.xml")));
+            Assertions.assertEquals(fs.getPath("/Doc.xml"), fs.getPath("/Pages/../Doc.xml").normalize());
+
+            Assertions.assertThrows(ReadOnlyFileSystemException.class, () -> Files.write(fs.getPath("/New.xml"), new byte[1]));
+            Assertions.assertThrows(ReadOnlyFileSystemException.class, () -> Files.delete(fs.getPath("/Doc.xml")));
+            Assertions.assertThrows(NoSuchFileException.class, () -> Files.readAllBytes(fs.getPath("/Missing.xml")));
+        }
+
+        URI uri = URI.create("xda:" + archive.toURI());
+        try (FileSystem fs = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+            Path doc = Paths.get(fs.getPath("/Doc.xml").toUri());
+            Assertions.assertSame(fs, doc.getFileSystem());
+            try (InputStream in = Files.newInputStream(doc)) {
+                Assertions.assertEquals('<', in.read());
+            }
+            Assertions.assertThrows(FileSystemAlreadyExistsException.class,
+                    () -> FileSystems.newFileSystem(uri, Collections.emptyMap()));
+        }
+        Assertions.assertThrows(FileSystemNotFoundException.class, () -> FileSystems.getFileSystem(uri));
+    }
+}
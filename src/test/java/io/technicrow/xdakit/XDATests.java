@@ -1,5 +1,478 @@
 package io.technicrow.xdakit;
 
+import io.technicrow.xdakit.constant.XDAOpenOption;
+import io.technicrow.xdakit.model.FileStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+
 class XDATests {
 
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testOpenModes() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, true);
+        for (XDAOpenOption[] options : new XDAOpenOption[][]{{}, {XDAOpenOption.MEMORY_MAPPED}, {XDAOpenOption.LAZY},
+                {XDAOpenOption.LAZY, XDAOpenOption.MEMORY_MAPPED}}) {
+            try (XDADocument document = XDADocument.open(archive, options)) {
+                Assertions.assertEquals(1, document.getMajorVersion());
+                for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                    FileStream fs = document.getFile(entry.getKey());
+                    Assertions.assertNotNull(fs);
+                    try (InputStream in = fs.getInputStream()) {
+                        Assertions.assertArrayEquals(entry.getValue(), IOUtils.toByteArray(in));
+                    }
+                }
+                Assertions.assertThrows(FileNotFoundException.class, () -> document.getFile("Missing.xml"));
+                Assertions.assertEquals(files.keySet().size(), document.listAllFiles().size());
+                Assertions.assertTrue(document.listAllFiles().containsAll(files.keySet()));
+                Assertions.assertEquals(Arrays.asList("Pages/Page_1/Content.xml"), document.list("Pages/"));
+                Assertions.assertEquals(Arrays.asList("Doc.xml", "Pages/", "Res/"), document.listDirectory(""));
+                Assertions.assertEquals(Arrays.asList("Doc.xml", "Pages/Page_1/Content.xml"), document.glob("**.xml"));
+                // No checksums in the hand-made archive, so only structure and decoding are checked
+                Assertions.assertTrue(document.validate());
+            }
+        }
+    }
+
+    @Test
+    void testOpenSources() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        byte[] data = Files.readAllBytes(writeArchive(files, true).toPath());
+        ByteBuffer padded = ByteBuffer.allocateDirect(data.length + 5);
+        padded.put(new byte[3]).put(data).flip().position(3);
+        ArchiveSource custom = new ArchiveSource() {
+            @Override
+            public long size() {
+                return data.length;
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) {
+                // One byte at a time, to exercise short reads
+                if (position >= data.length) {
+                    return -1;
+                }
+                if (!dst.hasRemaining()) {
+                    return 0;
+                }
+                dst.put(data[(int) position]);
+                return 1;
+            }
+        };
+        File archive = new File(tempDir, "source.xda");
+        Files.write(archive.toPath(), data);
+        for (ArchiveSource source : new ArchiveSource[]{ArchiveSource.of(data), ArchiveSource.of(padded.asReadOnlyBuffer()),
+                ArchiveSource.open(archive.toPath()), custom}) {
+            try (XDADocument document = XDADocument.open(source)) {
+                Assertions.assertEquals(new ArrayList<>(files.keySet()), document.listAllFiles());
+                for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                    Assertions.assertArrayEquals(entry.getValue(), read(document, entry.getKey()));
+                    Assertions.assertArrayEquals(entry.getValue(),
+                            TestArchives.toArray(document.getFileBuffer(entry.getKey())));
+                    Assertions.assertArrayEquals(entry.getValue(), TestArchives.transfer(document, entry.getKey()));
+                }
+                Assertions.assertTrue(document.validate());
+            }
+        }
+        Assertions.assertThrows(XDAException.class, () -> XDADocument.open(ArchiveSource.of(new byte[64])));
+    }
+
+    @Test
+    void testForeignChecksums() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, true, true);
+        try (XDADocument document = XDADocument.open(archive)) {
+            // Checksums of other producers follow no known rule, so only structure and decoding are checked
+            ValidationReport report = document.validate(false);
+            Assertions.assertTrue(report.isValid(), report.toString());
+            Assertions.assertEquals(files.size(), report.getFilesChecked());
+            report = document.validate(false, true);
+            Assertions.assertEquals(1 + files.size(), report.getProblems().size(), report.toString());
+        }
+    }
+
+    @Test
+    void testConcurrentGetFile() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, false);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (XDADocument document = XDADocument.open(archive)) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String path = document.listAllFiles().get(i % files.size());
+                results.add(executor.submit(() -> {
+                    try (InputStream in = document.getFile(path).getInputStream()) {
+                        return Arrays.equals(files.get(path), IOUtils.toByteArray(in));
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assertions.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testSidecarIndex() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, true);
+        try (XDADocument document = XDADocument.open(archive, XDAOpenOption.SIDECAR_INDEX)) {
+            Assertions.assertEquals(files.size(), document.listAllFiles().size());
+        }
+        Assertions.assertTrue(new File(archive.getPath() + ".idx").isFile());
+
+        // Corrupt the first entry's tables but keep its fixed fields and the modification time: only the index can
+        // still open it
+        long modified = archive.lastModified();
+        long entry;
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.seek(22);
+            entry = Integer.reverseBytes(raf.readInt());
+            raf.seek(entry + 37);
+            raf.write(new byte[]{'X', 'X', 'X', 'X'});
+        }
+        Assertions.assertTrue(archive.setLastModified(modified));
+        Assertions.assertThrows(IOException.class, () -> XDADocument.open(archive));
+        try (XDADocument document = XDADocument.open(archive, XDAOpenOption.SIDECAR_INDEX)) {
+            Assertions.assertEquals(new ArrayList<>(files.keySet()), document.listAllFiles());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                try (InputStream in = document.getFile(file.getKey()).getInputStream()) {
+                    Assertions.assertArrayEquals(file.getValue(), IOUtils.toByteArray(in));
+                }
+            }
+        }
+
+        // An entry rewritten in place with the same length, header and modification time makes the index stale, so
+        // the corrupt tables are parsed again
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.seek(entry + 17);
+            int b = raf.read();
+            raf.seek(entry + 17);
+            raf.write(b ^ 0xff);
+        }
+        Assertions.assertTrue(archive.setLastModified(modified));
+        Assertions.assertThrows(IOException.class, () -> XDADocument.open(archive, XDAOpenOption.SIDECAR_INDEX));
+
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.seek(entry + 17);
+            int b = raf.read();
+            raf.seek(entry + 17);
+            raf.write(b ^ 0xff);
+        }
+        Assertions.assertTrue(archive.setLastModified(modified));
+        XDADocument.open(archive, XDAOpenOption.SIDECAR_INDEX).close();
+
+        // A changed length makes the index stale
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.setLength(raf.length() + 1);
+        }
+        Assertions.assertThrows(IOException.class, () -> XDADocument.open(archive, XDAOpenOption.SIDECAR_INDEX));
+    }
+
+    @Test
+    void testOperatorsAndSnapshots() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = new File(tempDir, "history.xda");
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().build(archive)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                writer.addFile(file.getKey(), file.getValue());
+            }
+        }
+        byte[] replaced = "<Doc>2</Doc>".getBytes(StandardCharsets.UTF_8);
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().append(archive)) {
+            writer.deleteFile("Res/image.bmp");
+            writer.replaceFile("Doc.xml", replaced);
+        }
+        try (XDADocumentWriter writer = XDADocumentWriter.builder().append(archive)) {
+            writer.addFile("Res/image.bmp", replaced);
+            writer.deleteFile("Pages/Page_1/Content.xml");
+        }
+
+        for (XDAOpenOption[] options : new XDAOpenOption[][]{{}, {XDAOpenOption.LAZY}}) {
+            try (XDADocument document = XDADocument.open(archive, options)) {
+                Assertions.assertThrows(FileNotFoundException.class, () -> document.getFile("Pages/Page_1/Content.xml"));
+                Assertions.assertArrayEquals(replaced, read(document, "Res/image.bmp"));
+                Assertions.assertEquals(Arrays.asList("Doc.xml", "Res/image.bmp"), document.listAllFiles());
+                Assertions.assertEquals(3, document.getEntryCount());
+
+                XDA first = document.asOf(0);
+                Assertions.assertEquals(new ArrayList<>(files.keySet()), first.listAllFiles());
+                for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                    Assertions.assertArrayEquals(file.getValue(), read(first, file.getKey()));
+                }
+                XDA second = document.asOf(1);
+                Assertions.assertEquals(Arrays.asList("Doc.xml", "Pages/Page_1/Content.xml"), second.listAllFiles());
+                Assertions.assertArrayEquals(replaced, read(second, "Doc.xml"));
+                Assertions.assertThrows(FileNotFoundException.class, () -> second.getFile("Res/image.bmp"));
+                Assertions.assertEquals(document.listAllFiles(), document.asOf(2).listAllFiles());
+                Assertions.assertThrows(IndexOutOfBoundsException.class, () -> document.asOf(3));
+            }
+        }
+    }
+
+    @Test
+    void testAsyncGetFile() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (XDADocument document = XDADocument.open(archive)) {
+            try (InputStream in = document.getFileAsync("Doc.xml").get().getInputStream()) {
+                Assertions.assertArrayEquals(files.get("Doc.xml"), IOUtils.toByteArray(in));
+            }
+            Map<String, FileStream> all = document.getFilesAsync(files.keySet(), executor).get();
+            Assertions.assertEquals(new ArrayList<>(files.keySet()), new ArrayList<>(all.keySet()));
+            for (Map.Entry<String, FileStream> file : all.entrySet()) {
+                try (InputStream in = file.getValue().getInputStream()) {
+                    Assertions.assertArrayEquals(files.get(file.getKey()), IOUtils.toByteArray(in));
+                }
+            }
+            ExecutionException missing = Assertions.assertThrows(ExecutionException.class,
+                    () -> document.getFilesAsync(Arrays.asList("Doc.xml", "Missing.xml"), executor).get());
+            Assertions.assertTrue(missing.getCause() instanceof FileNotFoundException);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFileCache() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, false);
+        FileCache cache = new FileCache(5010, 5010);
+        try (XDADocument document = XDADocument.open(archive)) {
+            document.setFileCache(cache);
+            FileStream first = document.getFile("Res/image.bmp");
+            FileStream second = document.getFile("Res/image.bmp");
+            Assertions.assertNotSame(first.getInputStream(), second.getInputStream());
+            // Each reader starts at the beginning of the shared contents
+            Assertions.assertEquals(first.getInputStream().read(), second.getInputStream().read());
+            Assertions.assertArrayEquals(files.get("Res/image.bmp"), read(document, "Res/image.bmp"));
+            Assertions.assertEquals(2, cache.getStats().getHitCount());
+            Assertions.assertEquals(1, cache.getStats().getMissCount());
+            Assertions.assertEquals(5000, cache.getStats().getBytes());
+
+            // Buffer and transfer reads use the cache without filling it or skewing its statistics
+            Assertions.assertEquals(ByteBuffer.wrap(files.get("Res/image.bmp")), document.getFileBuffer("Res/image.bmp"));
+            Assertions.assertEquals(ByteBuffer.wrap(files.get("Doc.xml")), document.getFileBuffer("Doc.xml"));
+            Assertions.assertEquals(files.get("Doc.xml").length,
+                    document.transferFile("Doc.xml", Channels.newChannel(new ByteArrayOutputStream())));
+            Assertions.assertEquals(2, cache.getStats().getHitCount());
+            Assertions.assertEquals(1, cache.getStats().getMissCount());
+            Assertions.assertEquals(1, cache.getStats().getFileCount());
+
+            Assertions.assertArrayEquals(files.get("Doc.xml"), read(document, "Doc.xml"));
+            Assertions.assertArrayEquals(files.get("Pages/Page_1/Content.xml"), read(document, "Pages/Page_1/Content.xml"));
+            FileCache.Stats stats = cache.getStats();
+            Assertions.assertEquals(1, stats.getEvictionCount());
+            Assertions.assertEquals(2, stats.getFileCount());
+            Assertions.assertEquals(files.get("Doc.xml").length + files.get("Pages/Page_1/Content.xml").length,
+                    stats.getBytes());
+            Assertions.assertThrows(FileNotFoundException.class, () -> document.getFile("Missing.xml"));
+        }
+        Assertions.assertEquals(0, cache.getStats().getFileCount());
+    }
+
+    @Test
+    void testMappedSegmentBoundaries() throws IOException {
+        byte[] data = new byte[64];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 37 + 11);
+        }
+        File file = new File(tempDir, "segments.bin");
+        Files.write(file.toPath(), data);
+        try (ArchiveInput mapped = MappedArchiveInput.open(file, 7);
+             ArchiveInput plain = new RandomAccessArchiveInput(file)) {
+            for (int position = 0; position + 8 <= data.length; position++) {
+                ByteBuffer fromMapped = ByteBuffer.allocate(8);
+                ByteBuffer fromPlain = ByteBuffer.allocate(8);
+                Assertions.assertEquals(8, mapped.fill(fromMapped, position));
+                Assertions.assertEquals(8, plain.fill(fromPlain, position));
+                Assertions.assertArrayEquals(fromPlain.array(), fromMapped.array());
+                Assertions.assertArrayEquals(Arrays.copyOfRange(data, position, position + 8), fromMapped.array());
+            }
+            // Views only exist within one segment
+            Assertions.assertNotNull(mapped.slice(7, 7));
+            Assertions.assertNull(mapped.slice(6, 2));
+            try (InputStream region = mapped.openRegion(5, 50)) {
+                Assertions.assertArrayEquals(Arrays.copyOfRange(data, 5, 55), IOUtils.toByteArray(region));
+            }
+        }
+    }
+
+    @Test
+    void testInterruptedRead() throws Exception {
+        Map<String, byte[]> files = sampleFiles();
+        File archive = writeArchive(files, false);
+        try (XDADocument document = XDADocument.open(archive)) {
+            Thread.currentThread().interrupt();
+            try {
+                Assertions.assertThrows(IOException.class, () -> read(document, "Res/image.bmp"));
+            } finally {
+                Thread.interrupted();
+            }
+            // The interrupt closed the channel; later reads get a reopened one
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                Assertions.assertArrayEquals(entry.getValue(), read(document, entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void testRegionInputStream() throws IOException {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 13);
+        }
+        File file = new File(tempDir, "region.bin");
+        Files.write(file.toPath(), data);
+        try (ArchiveInput input = new RandomAccessArchiveInput(file);
+             InputStream region = new RegionInputStream(input, 100, 800, 7)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(region.read());
+            Assertions.assertEquals(10, region.skip(10));
+            byte[] chunk = new byte[3];
+            Assertions.assertEquals(3, region.read(chunk));
+            out.write(chunk);
+            IOUtils.copy(region, out);
+            byte[] expected = new byte[790];
+            expected[0] = data[100];
+            System.arraycopy(data, 111, expected, 1, 789);
+            Assertions.assertArrayEquals(expected, out.toByteArray());
+            Assertions.assertEquals(-1, region.read());
+        }
+    }
+
+    private static byte[] read(XDA xda, String path) throws Exception {
+        FileStream file = xda.getFile(path);
+        Assertions.assertNotNull(file);
+        try (InputStream in = file.getInputStream()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    static Map<String, byte[]> sampleFiles() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("Doc.xml", "<Doc/>".getBytes(StandardCharsets.UTF_8));
+        files.put("Pages/Page_1/Content.xml", "<Page><Text>Hello</Text></Page>".getBytes(StandardCharsets.UTF_8));
+        byte[] binary = new byte[5000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i % 251);
+        }
+        files.put("Res/image.bmp", binary);
+        return files;
+    }
+
+    /**
+     * Lay out a single-entry archive by hand: header, bit stream, then the entry.
+     * Odd-numbered files are stored deflated (ECS 0x02).
+     */
+    File writeArchive(Map<String, byte[]> files, boolean compressTables) throws IOException {
+        return writeArchive(files, compressTables, false);
+    }
+
+    /**
+     * @param foreignChecksums fill the checksums with arbitrary non-zero values, as another producer might
+     */
+    File writeArchive(Map<String, byte[]> files, boolean compressTables, boolean foreignChecksums) throws IOException {
+        final int headerLength = 26;
+        ByteArrayOutputStream bitStream = new ByteArrayOutputStream();
+        bitStream.write(new byte[]{'C', '.', 'B', 'S'});
+        ByteArrayOutputStream nameTable = new ByteArrayOutputStream();
+        ByteArrayOutputStream itemList = new ByteArrayOutputStream();
+        nameTable.write(le(files.size(), 4));
+        int index = 0;
+        for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+            byte[] nameValue = new byte[16];
+            nameValue[0] = (byte) (index + 1);
+            nameValue[15] = (byte) 0x5a;
+            nameTable.write(nameValue);
+            nameTable.write(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            nameTable.write(0);
+            itemList.write(0x01);
+            itemList.write(le(bitStream.size(), 4));
+            itemList.write(nameValue);
+            boolean deflate = (index % 2) == 1;
+            byte[] body = deflate ? deflate(entry.getValue()) : entry.getValue();
+            bitStream.write(foreignChecksums ? 0x7f : 0);
+            bitStream.write(le(body.length, 4));
+            if (deflate) {
+                bitStream.write(0x02);
+            }
+            bitStream.write(0xff);
+            bitStream.write(body);
+            index++;
+        }
+        byte[] nameTableData = compressTables ? deflate(nameTable.toByteArray()) : nameTable.toByteArray();
+        byte[] itemListData = compressTables ? deflate(itemList.toByteArray()) : itemList.toByteArray();
+        long entryOffset = headerLength + bitStream.size();
+        int entryLength = 4 + 4 + 4 + 4 + 1 + 16 + 4 + nameTableData.length + itemListData.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'@', 'X', 'D', 'A', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        out.write(1);
+        out.write(0);
+        out.write(le(1, 4));
+        out.write(0);
+        out.write(4);
+        out.write(le(entryOffset, 4));
+        out.write(bitStream.toByteArray());
+        out.write(new byte[]{'C', '.', 'E', 'n'});
+        out.write(le(entryLength, 4));
+        out.write(le(headerLength, 4));
+        out.write(le(0, 4));
+        out.write(compressTables ? 0x03 : 0x00);
+        byte[] checkSum = new byte[16];
+        if (foreignChecksums) {
+            Arrays.fill(checkSum, (byte) 0xa5);
+        }
+        out.write(checkSum);
+        out.write(le(nameTableData.length, 4));
+        out.write(nameTableData);
+        out.write(itemListData);
+        File archive = new File(tempDir, "sample.xda");
+        Files.write(archive.toPath(), out.toByteArray());
+        return archive;
+    }
+
+    private static byte[] le(long value, int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value);
+        return Arrays.copyOf(buffer.array(), bytes);
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(baos)) {
+            out.write(data);
+        }
+        return baos.toByteArray();
+    }
 }
@@ -0,0 +1,69 @@
+package io.technicrow.xdakit;
+
+import io.technicrow.xdakit.constant.XDAOpenOption;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.technicrow.xdakit.TestArchives.sampleFiles;
+import static io.technicrow.xdakit.TestArchives.writeArchive;
+
+class XDAValidatorTests {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testValidate() throws Exception {
+        Map<String, byte[]> files = sampleFiles(60);
+        File archive = writeArchive(new File(tempDir, "validate.xda"),
+                XDADocumentWriter.builder().compressItemList(true).ecs((byte) 0x02), files);
+        List<Long> bodies = new ArrayList<>();
+        try (XDADocument document = XDADocument.open(archive)) {
+            Assertions.assertTrue(document.validate());
+            ValidationReport report = document.validate(false, true);
+            Assertions.assertTrue(report.isValid(), report.toString());
+            Assertions.assertEquals(1, report.getEntriesChecked());
+            Assertions.assertEquals(files.size(), report.getFilesChecked());
+            for (String path : new String[]{"Pages/Page_7/Content.xml", "Pages/Page_42/Content.xml"}) {
+                bodies.add(document.findRecord(path).getDataOffset());
+            }
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            for (long offset : bodies) {
+                raf.seek(offset + 3);
+                int b = raf.read();
+                raf.seek(offset + 3);
+                raf.write(b ^ 0x55);
+            }
+        }
+        try (XDADocument document = XDADocument.open(archive)) {
+            Assertions.assertFalse(document.validate(true, true).isValid());
+            ValidationReport report = document.validate(false, true);
+            Assertions.assertTrue(report.isComplete());
+            Assertions.assertEquals(2, report.getProblems().size(), report.toString());
+            Assertions.assertEquals("Pages/Page_7/Content.xml", report.getProblems().get(0).getPath());
+            Assertions.assertEquals("Pages/Page_42/Content.xml", report.getProblems().get(1).getPath());
+        }
+
+        // Damage the deflated item list; a lazy open still works and validation reports the entry
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.seek(archive.length() - 2);
+            int b = raf.read();
+            raf.seek(archive.length() - 2);
+            raf.write(b ^ 0x01);
+        }
+        try (XDADocument document = XDADocument.open(archive, XDAOpenOption.LAZY)) {
+            ValidationReport report = document.validate(false);
+            Assertions.assertTrue(report.getProblems().stream()
+                    .anyMatch(problem -> problem.getPath() == null), report.toString());
+        }
+    }
+}